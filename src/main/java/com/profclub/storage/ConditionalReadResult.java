@@ -0,0 +1,69 @@
+package com.profclub.storage;
+
+import java.io.*;
+
+/**
+ * Result of a conditional read: either the content of a modified item, or a "not modified"
+ * answer which carries no content.
+ */
+public final class ConditionalReadResult implements Closeable {
+
+    private final InputStream content;
+
+    private final String eTag;
+
+    private final long lastModified;
+
+    private ConditionalReadResult(InputStream content, String eTag, long lastModified) {
+        this.content = content;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param content
+     * @param eTag entity tag of the item, may be null
+     * @param lastModified epoch millis, 0 if unknown
+     * @return
+     */
+    public static ConditionalReadResult modified(InputStream content, String eTag, long lastModified) {
+        return new ConditionalReadResult(content, eTag, lastModified);
+    }
+
+    /**
+     * @param eTag entity tag of the item, may be null
+     * @param lastModified epoch millis, 0 if unknown
+     * @return
+     */
+    public static ConditionalReadResult notModified(String eTag, long lastModified) {
+        return new ConditionalReadResult(null, eTag, lastModified);
+    }
+
+    public boolean isModified() {
+        return content != null;
+    }
+
+    /**
+     * Gets the content of a modified item, null if not modified.
+     *
+     * @return
+     */
+    public InputStream getContent() {
+        return content;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (content != null) {
+            content.close();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.profclub.storage;
+
+import com.profclub.storage.exception.*;
+
+public interface IListableStorageProvider extends IStorageProvider {
+
+    void walk(StorageItemVisitor visitor) throws StorageException;
+}
@@ -5,6 +5,7 @@ package com.profclub.storage;
 import com.profclub.storage.exception.*;
 
 import java.io.*;
+import java.net.*;
 
 public interface IStorageProvider {
 
@@ -14,6 +15,21 @@ public interface IStorageProvider {
 
     InputStream read(StorageType type, String id, String folderID) throws StorageException;
 
+    /**
+     * Reads an item unless it still has the given ETag or was not modified since the given time.
+     * Providers without conditional reads always answer with the content.
+     *
+     * @param type
+     * @param id
+     * @param folderID
+     * @param eTag ETag known by the caller, may be null
+     * @param ifModifiedSince epoch millis, 0 for none
+     * @return
+     */
+    default ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        return ConditionalReadResult.modified(read(type, id, folderID), null, 0);
+    }
+
     void delete(StorageType type, String id, String folderID) throws StorageException;
 
     void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException;
@@ -24,7 +40,49 @@ public interface IStorageProvider {
 
     long getSize(StorageType type, String id, String folderID) throws StorageException;
 
+    /**
+     * Gets the size of an item, or -1 if it does not exist. Providers override it to answer with a single call.
+     *
+     * @param type
+     * @param id
+     * @param folderID
+     * @return
+     */
+    default long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        return exist(type, id, folderID) ? getSize(type, id, folderID) : -1;
+    }
+
+    /**
+     * Gets a URL a client can download the item from directly, until it expires.
+     *
+     * @param type
+     * @param id
+     * @param folderID
+     * @param expiresInMillis
+     * @return
+     */
+    default URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        throw new StorageException("presigned urls are not supported by " + getProvider());
+    }
+
+    /**
+     * Gets a URL a client can upload the item to directly, until it expires.
+     *
+     * @param type
+     * @param id
+     * @param folderID
+     * @param expiresInMillis
+     * @return
+     */
+    default URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        throw new StorageException("presigned urls are not supported by " + getProvider());
+    }
+
     StorageProviderType getProvider();
 
     boolean supportOutputStream();
+
+    default boolean supportPresignedUrl() {
+        return false;
+    }
 }
@@ -0,0 +1,22 @@
+package com.profclub.storage;
+
+import com.profclub.storage.exception.*;
+import java.io.*;
+
+/**
+ * Provider which stores a stream of unknown length without buffering it whole,
+ * for providers which do not support output streams.
+ */
+public interface IStreamingStorageProvider extends IStorageProvider {
+
+    /**
+     * Stores the content read until the end of the stream, replacing an existing item.
+     * The stream is not closed.
+     *
+     * @param type
+     * @param id
+     * @param folderID
+     * @param content
+     */
+    void upload(StorageType type, String id, String folderID, InputStream content) throws StorageException;
+}
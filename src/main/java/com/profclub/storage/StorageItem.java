@@ -0,0 +1,44 @@
+package com.profclub.storage;
+
+/**
+ * Describes a stored item found while listing a provider.
+ */
+public final class StorageItem {
+
+    private final StorageKey key;
+
+    private final long size;
+
+    private final long lastModified;
+
+    /** Checksum reported by the provider, may be null */
+    private final String checksum;
+
+    public StorageItem(StorageKey key, long size, long lastModified, String checksum) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+    }
+
+    public StorageKey getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return key + " (" + size + " bytes)";
+    }
+}
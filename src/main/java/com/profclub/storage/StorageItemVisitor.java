@@ -0,0 +1,11 @@
+package com.profclub.storage;
+
+import com.profclub.storage.exception.*;
+
+/**
+ * Receives stored items one at a time while a provider is listed.
+ */
+public interface StorageItemVisitor {
+
+    void visit(StorageItem item) throws StorageException;
+}
@@ -0,0 +1,55 @@
+package com.profclub.storage;
+
+import java.util.*;
+
+/**
+ * Identifies a stored item by its storage type, folder and id.
+ */
+public final class StorageKey {
+
+    private final StorageType type;
+
+    private final String folderID;
+
+    private final String id;
+
+    public StorageKey(StorageType type, String folderID, String id) {
+        this.type = Objects.requireNonNull(type, "type");
+        this.folderID = folderID;
+        this.id = Objects.requireNonNull(id, "id");
+    }
+
+    public StorageType getType() {
+        return type;
+    }
+
+    public String getFolderID() {
+        return folderID;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StorageKey)) {
+            return false;
+        }
+        StorageKey that = (StorageKey) o;
+        return type == that.type && Objects.equals(folderID, that.folderID) && id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, folderID, id);
+    }
+
+    @Override
+    public String toString() {
+        return type.name() + "/" + folderID + "/" + id;
+    }
+}
@@ -0,0 +1,75 @@
+package com.profclub.storage.aws;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.upload.*;
+import java.util.*;
+
+/**
+ * Resumable uploads backed by S3 multipart uploads, chunk N is uploaded as part N + 1.
+ */
+public class AwsResumableUploadService extends AbstractResumableUploadService {
+
+    /** S3 rejects parts smaller than 5 MB, except the last one */
+    private static final long MIN_CHUNK_SIZE = 5L * 1024 * 1024;
+
+    private static final long MAX_CHUNK_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private static final int MAX_PARTS = 10000;
+
+    private final AwsStorageProvider provider;
+
+    private final AWSConfiguration awsConfiguration;
+
+    public AwsResumableUploadService(AwsStorageProvider provider, AWSConfiguration awsConfiguration,
+                                     ResumableUploadConfiguration configuration) {
+        super(configuration);
+        this.provider = provider;
+        this.awsConfiguration = awsConfiguration;
+    }
+
+    @Override
+    protected void validateChunkSize(long chunkSize) throws StorageException {
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new StorageException("S3 chunk size must be between 5 MB and 5 GB: " + chunkSize);
+        }
+    }
+
+    @Override
+    protected int getMaxChunks() {
+        return MAX_PARTS;
+    }
+
+    @Override
+    protected String startUpload(UploadSession session) throws StorageException {
+        return provider.getAwsS3Service().initiateMultipartUpload(awsConfiguration.getS3BaseBucket(), getObjectKey(session));
+    }
+
+    @Override
+    protected String writeChunk(UploadSession session, int chunkIndex, byte[] content) throws StorageException {
+        return provider.getAwsS3Service().uploadPart(awsConfiguration.getS3BaseBucket(), getObjectKey(session),
+                session.getUploadHandle(), chunkIndex + 1, content);
+    }
+
+    @Override
+    protected void completeUpload(UploadSession session) throws StorageException {
+        SortedMap<Integer, String> partETags = new TreeMap<>();
+        for (Integer index : session.getReceivedChunks()) {
+            partETags.put(index + 1, session.getChunkTag(index));
+        }
+        provider.getAwsS3Service().completeMultipartUpload(awsConfiguration.getS3BaseBucket(), getObjectKey(session),
+                session.getUploadHandle(), partETags);
+    }
+
+    @Override
+    protected void abortUpload(UploadSession session) throws StorageException {
+        provider.getAwsS3Service().abortMultipartUpload(awsConfiguration.getS3BaseBucket(), getObjectKey(session),
+                session.getUploadHandle());
+    }
+
+    private String getObjectKey(UploadSession session) {
+        StorageKey key = session.getKey();
+        return provider.getObjectKey(key.getType(), key.getId(), key.getFolderID());
+    }
+}
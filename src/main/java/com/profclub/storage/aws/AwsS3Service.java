@@ -3,17 +3,25 @@ package com.profclub.storage.aws;
 import com.amazonaws.services.s3.*;
 import com.amazonaws.services.s3.model.*;
 import com.profclub.common.util.*;
+import com.profclub.storage.*;
 import com.profclub.storage.config.*;
 import com.profclub.storage.exception.*;
+import com.profclub.storage.util.*;
+import com.amazonaws.*;
 import org.apache.commons.io.*;
 import org.slf4j.*;
 import javax.annotation.*;
 import java.io.*;
+import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Implementation of service
  * Amazon S3 integration service for files storage management.
+ *
+ * Requests go through an adaptive per-prefix concurrency limit; requests rejected by it
+ * fail with {@link StorageThrottledException}.
  */
 public class AwsS3Service  {
 
@@ -28,56 +36,99 @@ public class AwsS3Service  {
 
     private AWSConfiguration awsConfiguration;
 
+    /** Adaptive limit of concurrent requests per key prefix */
+    private S3ConcurrencyLimiter concurrencyLimiter;
+
+    /** Hedging and retrying reader for S3 GETs */
+    private S3HedgedReader hedgedReader;
+
+    /** Completed once the bucket is checked and the connections are warmed up */
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
     /**
      * Initializes a new instance of the class.
      */
     public AwsS3Service(AmazonS3 s3Client, AWSConfiguration awsConfiguration) {
         this.s3Client = s3Client;
         this.awsConfiguration = awsConfiguration;
+        this.s3BucketName = awsConfiguration.getS3BaseBucket();
+        this.concurrencyLimiter = new S3ConcurrencyLimiter(awsConfiguration);
+        this.hedgedReader = new S3HedgedReader(s3Client, awsConfiguration, concurrencyLimiter);
     }
 
     /**
-     * Executes initialization logic.
+     * Checks the configured bucket and starts the background warm-up.
+     *
+     * Only the EAGER startup mode waits for S3, with a single HEAD of the bucket. The bucket check
+     * of the LAZY mode and the opening of pooled connections run in the background, their completion
+     * is signalled by {@link #isReady()}.
      */
     @PostConstruct
-    private void init() {
+    public void init() {
         LOG.debug("Creating AWS S3 client");
 
-        this.s3BucketName = awsConfiguration.getS3BaseBucket();
-        // acquire list of S3 buckets
-        List<String> s3Buckets = null;
-        try {
-            s3Buckets = listBuckets();
-        } catch (StorageException e) {
-            throw new RuntimeException("Unexpected exception", e);
-        }
-
         // ensure bucket name specified
         if (StringHelper.isBlank(s3BucketName)) {
             throw new RuntimeException("S3 configuration bucket cannot be empty");
         }
 
-        // ensure configured bucket exists
-        boolean exists = false;
-        for (String bucketName : s3Buckets) {
-            if (bucketName.equals(s3BucketName)) {
-                exists = true;
-                break;
-            }
-        }
-
-        // create configured bucket if not found on the cloud
-        if (!exists) {
+        boolean lazy = awsConfiguration.getStartupMode() == AWSConfiguration.StartupMode.LAZY;
+        if (!lazy) {
             try {
-                createBucket(s3BucketName);
+                ensureBucket();
             } catch (StorageException e) {
                 throw new RuntimeException(e.getMessage(), e);
             }
         }
 
+        int connections = awsConfiguration.isPrewarmEnabled() ? awsConfiguration.getPrewarmConnections() : 0;
+        if (lazy || connections > 0) {
+            NamedThreadFactory threadFactory = new NamedThreadFactory("s3-warmup");
+            threadFactory.newThread(() -> warmUp(lazy, connections, threadFactory)).start();
+        } else {
+            ready.complete(null);
+        }
+
         LOG.info("AWS S3 manager service initialized.");
     }
 
+    /**
+     * Releases the read threads.
+     */
+    @PreDestroy
+    public void destroy() {
+        hedgedReader.shutdown();
+    }
+
+    /**
+     * Checks whether the startup checks and warm-up are completed.
+     *
+     * @return
+     */
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Waits for the startup checks and warm-up.
+     *
+     * @param timeoutMillis
+     * @return false if they did not complete in time
+     */
+    public boolean awaitReady(long timeoutMillis) throws StorageException {
+        try {
+            ready.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for S3 warm-up", e);
+        } catch (ExecutionException e) {
+            throw new StorageException("S3 warm-up failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
     ///////////////////////////////////////////////
 
     /**
@@ -87,8 +138,10 @@ public class AwsS3Service  {
      */
     public void createBucket(String bucketName) throws StorageException{
         try {
-            Bucket bucket = s3Client.createBucket(bucketName);
+            Bucket bucket = concurrencyLimiter.execute(null, () -> s3Client.createBucket(bucketName));
             LOG.info("S3 bucket created: {}", bucket.getName());
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -103,8 +156,32 @@ public class AwsS3Service  {
     public void createBucket(String bucketName, String region) throws StorageException{
         try {
             CreateBucketRequest request = new CreateBucketRequest(bucketName, region);
-            Bucket bucket = s3Client.createBucket(request);
+            Bucket bucket = concurrencyLimiter.execute(null, () -> s3Client.createBucket(request));
             LOG.info("S3 bucket created: {} in region [{}]", bucket.getName(), region);
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Checks if a bucket exists with a single HEAD request.
+     *
+     * @param bucketName
+     * @return
+     */
+    public boolean bucketExists(String bucketName) throws StorageException {
+        try {
+            concurrencyLimiter.execute(null, () -> s3Client.headBucket(new HeadBucketRequest(bucketName)));
+            return true;
+        } catch (AmazonServiceException ex) {
+            if (ex.getStatusCode() == 404) {
+                return false;
+            }
+            throw new StorageException(ex.getMessage(), ex);
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -118,12 +195,14 @@ public class AwsS3Service  {
     public List<String> listBuckets() throws StorageException {
         List<String> resultList = new ArrayList<>();
         try {
-            List<Bucket> s3Buckets = s3Client.listBuckets();
+            List<Bucket> s3Buckets = concurrencyLimiter.execute(null, () -> s3Client.listBuckets());
             for (Bucket bucket : s3Buckets) {
                 if (bucket.getName().equals(s3BucketName)) {
                     resultList.add(bucket.getName());
                 }
             }
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -142,7 +221,7 @@ public class AwsS3Service  {
             // acquire S3 objects response
             ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName)
                     .withDelimiter(S3_OBJECT_DELIM);
-            ListObjectsV2Result response = s3Client.listObjectsV2(request);
+            ListObjectsV2Result response = concurrencyLimiter.execute(null, () -> s3Client.listObjectsV2(request));
 
             // filter folders
             List<String> objectPrefixes = response.getCommonPrefixes();
@@ -153,6 +232,8 @@ public class AwsS3Service  {
                     }
                 }
             }
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -174,7 +255,7 @@ public class AwsS3Service  {
             ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName)
                     .withPrefix(prefix)
                     .withDelimiter(S3_OBJECT_DELIM);
-            ListObjectsV2Result response = s3Client.listObjectsV2(request);
+            ListObjectsV2Result response = concurrencyLimiter.execute(prefix, () -> s3Client.listObjectsV2(request));
 
             // filter folders
             List<String> objectPrefixes = response.getCommonPrefixes();
@@ -185,6 +266,8 @@ public class AwsS3Service  {
                     }
                 }
             }
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -235,6 +318,29 @@ public class AwsS3Service  {
 
             // extract object names
             return getObjectNames(prefix, s3ObjectSummaries);
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Gets one page of objects with specified S3 prefix, folders included.
+     *
+     * @param bucketName
+     * @param prefix
+     * @param continuationToken token of the previous page, null for the first page
+     * @return
+     */
+    public ListObjectsV2Result listObjectsPage(String bucketName, String prefix, String continuationToken) throws StorageException {
+        try {
+            ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName)
+                    .withPrefix(prefix)
+                    .withContinuationToken(continuationToken);
+            return concurrencyLimiter.execute(prefix, () -> s3Client.listObjectsV2(request));
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -251,7 +357,7 @@ public class AwsS3Service  {
         try {
             // acquire S3 objects response
             ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName);
-            ListObjectsV2Result response = s3Client.listObjectsV2(request);
+            ListObjectsV2Result response = concurrencyLimiter.execute(null, () -> s3Client.listObjectsV2(request));
 
             // extract object names
             List<S3ObjectSummary> s3ObjectSummaries = response.getObjectSummaries();
@@ -260,6 +366,8 @@ public class AwsS3Service  {
                     resultList.add(summary.getKey());
                 }
             }
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -308,7 +416,9 @@ public class AwsS3Service  {
      */
     public boolean exists(String bucketName, String s3ObjectKey) throws StorageException{
         try {
-            return s3Client.doesObjectExist(bucketName, s3ObjectKey);
+            return concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.doesObjectExist(bucketName, s3ObjectKey));
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
@@ -374,9 +484,11 @@ public class AwsS3Service  {
             PutObjectRequest request = new PutObjectRequest(bucketName, s3ObjectKey, file);
 
             // upload file
-            PutObjectResult response = s3Client.putObject(request);
+            PutObjectResult response = concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.putObject(request));
 
             LOG.debug("File {} uploaded. [MD5: {}]", file.getAbsolutePath(), response.getContentMd5());
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
         }
@@ -390,12 +502,154 @@ public class AwsS3Service  {
      * @param fileContent
      */
     public void uploadObject(String bucketName, String s3ObjectKey, byte[] fileContent) throws StorageException{
+        uploadObject(bucketName, s3ObjectKey, fileContent, fileContent.length);
+    }
+
+    /**
+     * Uploads the first bytes of a buffer using the S3 KEY.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param fileContent
+     * @param length number of bytes of the buffer to upload
+     */
+    public void uploadObject(String bucketName, String s3ObjectKey, byte[] fileContent, int length) throws StorageException{
         try {
-            // upload file as byte array
-            PutObjectResult response = s3Client.putObject(bucketName, s3ObjectKey,
-                    new ByteArrayInputStream(fileContent), new ObjectMetadata());
+            // upload file as byte array, the known length keeps the client from buffering the stream
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(length);
+            PutObjectResult response = concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.putObject(bucketName, s3ObjectKey,
+                    new ByteArrayInputStream(fileContent, 0, length), metadata));
 
             LOG.debug("Object [key: {}] uploaded. [MD5: {}]", s3ObjectKey, response.getContentMd5());
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Copies an S3 object within the bucket, S3 copies the content server side.
+     * Objects over 5 GB need a multipart copy and are not supported.
+     *
+     * @param bucketName
+     * @param sourceKey
+     * @param targetKey
+     */
+    public void copyObject(String bucketName, String sourceKey, String targetKey) throws StorageException {
+        try {
+            CopyObjectResult response = concurrencyLimiter.execute(targetKey,
+                    () -> s3Client.copyObject(bucketName, sourceKey, bucketName, targetKey));
+            LOG.debug("Object [key: {}] copied to [key: {}]. [ETag: {}]", sourceKey, targetKey, response.getETag());
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", sourceKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Starts a multipart upload of an object.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @return upload id
+     */
+    public String initiateMultipartUpload(String bucketName, String s3ObjectKey) throws StorageException {
+        try {
+            InitiateMultipartUploadResult response = concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.initiateMultipartUpload(
+                    new InitiateMultipartUploadRequest(bucketName, s3ObjectKey)));
+            LOG.debug("Multipart upload of object [key: {}] initiated. [upload id: {}]", s3ObjectKey, response.getUploadId());
+            return response.getUploadId();
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Uploads a part of a multipart upload.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param uploadId
+     * @param partNumber 1 to 10000
+     * @param content
+     * @return ETag of the part
+     */
+    public String uploadPart(String bucketName, String s3ObjectKey, String uploadId, int partNumber, byte[] content) throws StorageException {
+        return uploadPart(bucketName, s3ObjectKey, uploadId, partNumber, content, content.length);
+    }
+
+    /**
+     * Uploads the first bytes of a buffer as a part of a multipart upload.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param uploadId
+     * @param partNumber 1 to 10000
+     * @param content
+     * @param length number of bytes of the buffer to upload
+     * @return ETag of the part
+     */
+    public String uploadPart(String bucketName, String s3ObjectKey, String uploadId, int partNumber, byte[] content,
+                             int length) throws StorageException {
+        try {
+            UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName)
+                    .withKey(s3ObjectKey)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withInputStream(new ByteArrayInputStream(content, 0, length))
+                    .withPartSize(length);
+            return concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.uploadPart(request)).getPartETag().getETag();
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Part: %d, Error: %s", s3ObjectKey, partNumber, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Assembles the uploaded parts into the object.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param uploadId
+     * @param partETags ETags by part number
+     */
+    public void completeMultipartUpload(String bucketName, String s3ObjectKey, String uploadId, SortedMap<Integer, String> partETags) throws StorageException {
+        try {
+            List<PartETag> parts = new ArrayList<>();
+            for (Map.Entry<Integer, String> part : partETags.entrySet()) {
+                parts.add(new PartETag(part.getKey(), part.getValue()));
+            }
+            concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, s3ObjectKey, uploadId, parts)));
+            LOG.debug("Multipart upload of object [key: {}] completed. [parts: {}]", s3ObjectKey, parts.size());
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Aborts a multipart upload, S3 discards its uploaded parts.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param uploadId
+     */
+    public void abortMultipartUpload(String bucketName, String s3ObjectKey, String uploadId) throws StorageException {
+        try {
+            concurrencyLimiter.execute(s3ObjectKey, () -> {
+                s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, s3ObjectKey, uploadId));
+                return null;
+            });
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
         }
@@ -440,9 +694,16 @@ public class AwsS3Service  {
      */
     public byte[] getObjectContent(String bucketName, String s3ObjectKey) throws StorageException{
         try {
-            byte[] content = IOUtils.toByteArray(getObjectContentAsStream(bucketName, s3ObjectKey));
+            S3ReadResult result = hedgedReader.read(new GetObjectRequest(bucketName, s3ObjectKey));
+            byte[] content;
+            try (InputStream stream = result.getContent()) {
+                // pre-size from the announced length instead of growing the array while reading
+                content = StreamHelper.toByteArray(stream, result.getMetadata().getContentLength());
+            }
             LOG.debug("S3 object [key: {}] content retrieved (length: {})", s3ObjectKey, content.length);
-        return content;
+            return content;
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
         }
@@ -465,8 +726,88 @@ public class AwsS3Service  {
     public InputStream getObjectContentAsStream(String bucketName, String s3ObjectKey) throws StorageException{
         try {
             GetObjectRequest request = new GetObjectRequest(bucketName, s3ObjectKey);
-            S3Object s3Object = s3Client.getObject(request);
-            return  s3Object.getObjectContent();
+            return hedgedReader.read(request).getContent();
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Gets S3 object content unless it still has the given ETag or was not modified since the given time.
+     * When both are given both headers are sent to S3, which answers not modified when the ETag still
+     * matches, even if the object was modified since the given time.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param eTag ETag known by the caller, may be null
+     * @param modifiedSince may be null
+     * @return
+     */
+    public ConditionalReadResult getObjectContentIfModified(String bucketName, String s3ObjectKey, String eTag, Date modifiedSince) throws StorageException {
+        try {
+            GetObjectRequest request = new GetObjectRequest(bucketName, s3ObjectKey);
+            if (eTag != null) {
+                request.withNonmatchingETagConstraint(eTag);
+            }
+            if (modifiedSince != null) {
+                request.withModifiedSinceConstraint(modifiedSince);
+            }
+
+            S3ReadResult result = hedgedReader.read(request);
+            if (result == null) {
+                LOG.debug("S3 object [key: {}] not modified", s3ObjectKey);
+                return ConditionalReadResult.notModified(eTag, 0);
+            }
+            Date lastModified = result.getMetadata().getLastModified();
+            return ConditionalReadResult.modified(result.getContent(), result.getMetadata().getETag(),
+                    lastModified == null ? 0 : lastModified.getTime());
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Gets the content length of an S3 object from its metadata, no content is read.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @return
+     */
+    public long getObjectSize(String bucketName, String s3ObjectKey) throws StorageException {
+        try {
+            return concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.getObjectMetadata(bucketName, s3ObjectKey)).getContentLength();
+        } catch (StorageThrottledException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Gets the size of an S3 object with a single metadata request.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @return -1 if the object does not exist
+     */
+    public long getObjectSizeIfExists(String bucketName, String s3ObjectKey) throws StorageException {
+        try {
+            return concurrencyLimiter.execute(s3ObjectKey, () -> {
+                try {
+                    return s3Client.getObjectMetadata(bucketName, s3ObjectKey).getContentLength();
+                } catch (AmazonServiceException ex) {
+                    if (ex.getStatusCode() == 404) {
+                        return -1L;
+                    }
+                    throw ex;
+                }
+            });
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
         }
@@ -491,21 +832,52 @@ public class AwsS3Service  {
 
             // get file content
             GetObjectRequest request = new GetObjectRequest(bucketName, objectKey);
-            S3Object s3Object = s3Client.getObject(request);
-            InputStream stream = s3Object.getObjectContent();
-
-            // create/return a file in temp dir
-            if (f.createNewFile()) {
-                FileUtils.copyToFile(stream, f);
-                return f;
-            } else {
-                throw new StorageException("Unable to create file {" +  f.getAbsolutePath() + "}");
+            try (InputStream stream = hedgedReader.read(request).getContent()) {
+                // create/return a file in temp dir
+                if (f.createNewFile()) {
+                    try (OutputStream out = new FileOutputStream(f)) {
+                        StreamHelper.copy(stream, out);
+                    }
+                    return f;
+                } else {
+                    throw new StorageException("Unable to create file {" +  f.getAbsolutePath() + "}");
+                }
             }
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(String.format("Key: %s, Error: %s", objectKey, ex.getMessage()), ex);
         }
     }
 
+    /**
+     * Generates a presigned URL granting the HTTP method on an S3 object until the expiration time.
+     * Signing is computed locally, no request is sent to S3.
+     *
+     * @param bucketName
+     * @param s3ObjectKey
+     * @param expiration
+     * @param method
+     * @return
+     */
+    public URL generatePresignedUrl(String bucketName, String s3ObjectKey, Date expiration, HttpMethod method) throws StorageException {
+        try {
+            return s3Client.generatePresignedUrl(bucketName, s3ObjectKey, expiration, method);
+        } catch (Exception ex) {
+            throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Gets the current concurrency limit of the prefix of an S3 key.
+     *
+     * @param s3ObjectKey
+     * @return
+     */
+    public int getConcurrencyLimit(String s3ObjectKey) {
+        return concurrencyLimiter.getLimit(s3ObjectKey);
+    }
+
     /**
      * Deletes an S3 object from root directory.
      *
@@ -539,7 +911,12 @@ public class AwsS3Service  {
                     throw new StorageException("Directory is not blank" + directoryName);
                 }
             }
-            s3Client.deleteObject(bucketName, s3ObjectKey);
+            concurrencyLimiter.execute(s3ObjectKey, () -> {
+                s3Client.deleteObject(bucketName, s3ObjectKey);
+                return null;
+            });
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(String.format("Key: %s, Error: %s", s3ObjectKey, ex.getMessage()), ex);
         }
@@ -547,14 +924,53 @@ public class AwsS3Service  {
 
     // region <HELPERS>
 
-    private List<S3ObjectSummary> getObjectSummaries(String s3BucketName, String prefix) {
+    /**
+     * Creates the configured bucket if not found on the cloud.
+     */
+    private void ensureBucket() throws StorageException {
+        if (!bucketExists(s3BucketName)) {
+            createBucket(s3BucketName);
+        }
+    }
+
+    private void warmUp(boolean checkBucket, int connections, ThreadFactory threadFactory) {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = connections > 0 ? Executors.newFixedThreadPool(connections, threadFactory) : null;
+        try {
+            if (checkBucket) {
+                ensureBucket();
+            }
+
+            // concurrent requests leave as many connections open in the client pool
+            List<Future<Boolean>> requests = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                requests.add(executor.submit(() -> bucketExists(s3BucketName)));
+            }
+            for (Future<Boolean> request : requests) {
+                request.get();
+            }
+
+            ready.complete(null);
+            LOG.info("AWS S3 warm-up completed in {} ms", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            ready.completeExceptionally(cause);
+            LOG.error("AWS S3 warm-up failed: {}", cause.getMessage(), cause);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private List<S3ObjectSummary> getObjectSummaries(String s3BucketName, String prefix) throws Exception {
         // create list object request
         ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(s3BucketName)
                 .withPrefix(prefix)
                 .withDelimiter(S3_OBJECT_DELIM);
 
         // acquire response
-        ListObjectsV2Result response = s3Client.listObjectsV2(request);
+        ListObjectsV2Result response = concurrencyLimiter.execute(prefix, () -> s3Client.listObjectsV2(request));
 
         // extract/return object summaries
         return response.getObjectSummaries();
@@ -596,7 +1012,9 @@ public class AwsS3Service  {
             PutObjectRequest putObjectRequest = new PutObjectRequest(s3BucketName, s3ObjectKey, emptyContent, metadata);
 
             // send request to S3 to create folder
-            s3Client.putObject(putObjectRequest);
+            concurrencyLimiter.execute(s3ObjectKey, () -> s3Client.putObject(putObjectRequest));
+        } catch (StorageThrottledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new StorageException(ex.getMessage(), ex);
         }
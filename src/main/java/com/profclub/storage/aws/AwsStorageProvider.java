@@ -1,13 +1,19 @@
 package com.profclub.storage.aws;
 
+import com.amazonaws.*;
 import com.amazonaws.services.s3.*;
+import com.amazonaws.services.s3.model.*;
 import com.profclub.storage.*;
 import com.profclub.storage.config.*;
 import com.profclub.storage.exception.*;
-
+import com.profclub.storage.util.*;
+import org.apache.commons.io.*;
+import javax.annotation.*;
 import java.io.*;
+import java.net.*;
+import java.util.*;
 
-public class AwsStorageProvider implements IStorageProvider {
+public class AwsStorageProvider implements IListableStorageProvider, IStreamingStorageProvider {
 
     private AwsS3Service awsS3Service;
 
@@ -18,12 +24,89 @@ public class AwsStorageProvider implements IStorageProvider {
         this.awsS3Service = new AwsS3Service(s3Client, awsConfiguration);
     }
 
+    /**
+     * Starts the service, which is not managed by the container.
+     */
+    @PostConstruct
+    public void init() {
+        awsS3Service.init();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        awsS3Service.destroy();
+    }
+
+    /**
+     * Checks whether the startup checks and warm-up of S3 are completed, e.g. for a readiness probe.
+     *
+     * @return
+     */
+    public boolean isReady() {
+        return awsS3Service.isReady();
+    }
+
+    /**
+     * Waits for the startup checks and warm-up of S3.
+     *
+     * @param timeoutMillis
+     * @return false if they did not complete in time
+     */
+    public boolean awaitReady(long timeoutMillis) throws StorageException {
+        return awsS3Service.awaitReady(timeoutMillis);
+    }
+
     @Override
     public void upload(StorageType type, String id, String folderID, byte[] content) throws StorageException {
         String folder = type.name() + "/" + folderID;
         awsS3Service.uploadObject(awsConfiguration.getS3BaseBucket(), folder, id, content);
     }
 
+    /**
+     * Streams shorter than a part are uploaded with a single request, longer ones with a multipart
+     * upload, so at most one part is held in memory. Streams fitting a pooled buffer, as most items
+     * do, are uploaded from it without allocating a part.
+     */
+    @Override
+    public void upload(StorageType type, String id, String folderID, InputStream content) throws StorageException {
+        String bucketName = awsConfiguration.getS3BaseBucket();
+        String objectKey = getObjectKey(type, id, folderID);
+        BufferPool pool = BufferPool.shared();
+        byte[] head = pool.acquire();
+        byte[] part;
+        int length;
+        try {
+            length = readPart(content, head, 0);
+            if (length < head.length) {
+                awsS3Service.uploadObject(bucketName, objectKey, head, length);
+                return;
+            }
+            part = new byte[Math.max(awsConfiguration.getStreamingPartSizeBytes(), head.length)];
+            System.arraycopy(head, 0, part, 0, length);
+        } finally {
+            pool.release(head);
+        }
+
+        length = readPart(content, part, length);
+        if (length < part.length) {
+            awsS3Service.uploadObject(bucketName, objectKey, part, length);
+            return;
+        }
+
+        String uploadId = awsS3Service.initiateMultipartUpload(bucketName, objectKey);
+        try {
+            SortedMap<Integer, String> partETags = new TreeMap<>();
+            for (int partNumber = 1; length > 0; partNumber++) {
+                partETags.put(partNumber, awsS3Service.uploadPart(bucketName, objectKey, uploadId, partNumber, part, length));
+                length = readPart(content, part, 0);
+            }
+            awsS3Service.completeMultipartUpload(bucketName, objectKey, uploadId, partETags);
+        } catch (StorageException e) {
+            abortQuietly(bucketName, objectKey, uploadId);
+            throw e;
+        }
+    }
+
     @Override
     public OutputStream create(StorageType type, String id, String folderID) throws StorageException {
         throw new UnsupportedOperationException("try to use different method aws s3 does not provide out stream");
@@ -34,6 +117,12 @@ public class AwsStorageProvider implements IStorageProvider {
         return awsS3Service.getObjectContentAsStream(awsConfiguration.getS3BaseBucket(), type.name(), folderID, id);
     }
 
+    @Override
+    public ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        return awsS3Service.getObjectContentIfModified(awsConfiguration.getS3BaseBucket(), getObjectKey(type, id, folderID),
+                eTag, ifModifiedSince > 0 ? new Date(ifModifiedSince) : null);
+    }
+
     @Override
     public void delete(StorageType type, String id, String folderID) throws StorageException {
         String folder = type.name() + "/" + folderID;
@@ -42,12 +131,15 @@ public class AwsStorageProvider implements IStorageProvider {
 
     @Override
     public void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
-
+        // S3 has no rename, the object is copied server side and the source removed
+        copy(fromType, fromId, toType, toId, folderID);
+        awsS3Service.deleteObject(awsConfiguration.getS3BaseBucket(), getObjectKey(fromType, fromId, folderID));
     }
 
     @Override
     public void copy(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
-
+        awsS3Service.copyObject(awsConfiguration.getS3BaseBucket(), getObjectKey(fromType, fromId, folderID),
+                getObjectKey(toType, toId, folderID));
     }
 
     @Override
@@ -57,7 +149,48 @@ public class AwsStorageProvider implements IStorageProvider {
 
     @Override
     public long getSize(StorageType type, String id, String folderID) throws StorageException {
-        return 0;
+        return awsS3Service.getObjectSize(awsConfiguration.getS3BaseBucket(), getObjectKey(type, id, folderID));
+    }
+
+    @Override
+    public long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        return awsS3Service.getObjectSizeIfExists(awsConfiguration.getS3BaseBucket(), getObjectKey(type, id, folderID));
+    }
+
+    @Override
+    public URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return awsS3Service.generatePresignedUrl(awsConfiguration.getS3BaseBucket(), getObjectKey(type, id, folderID),
+                new Date(System.currentTimeMillis() + expiresInMillis), HttpMethod.GET);
+    }
+
+    @Override
+    public URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return awsS3Service.generatePresignedUrl(awsConfiguration.getS3BaseBucket(), getObjectKey(type, id, folderID),
+                new Date(System.currentTimeMillis() + expiresInMillis), HttpMethod.PUT);
+    }
+
+    /**
+     * Visits every stored item page by page. The checksum of an item is its MD5, known
+     * for objects not uploaded in parts.
+     */
+    @Override
+    public void walk(StorageItemVisitor visitor) throws StorageException {
+        for (StorageType type : StorageType.values()) {
+            String continuationToken = null;
+            do {
+                ListObjectsV2Result page = awsS3Service.listObjectsPage(awsConfiguration.getS3BaseBucket(),
+                        type.name() + "/", continuationToken);
+                for (S3ObjectSummary summary : page.getObjectSummaries()) {
+                    StorageKey key = getStorageKey(type, summary.getKey());
+                    if (key != null) {
+                        String eTag = summary.getETag();
+                        visitor.visit(new StorageItem(key, summary.getSize(), summary.getLastModified().getTime(),
+                                eTag == null || eTag.contains("-") ? null : eTag));
+                    }
+                }
+                continuationToken = page.isTruncated() ? page.getNextContinuationToken() : null;
+            } while (continuationToken != null);
+        }
     }
 
     @Override
@@ -69,4 +202,56 @@ public class AwsStorageProvider implements IStorageProvider {
     public boolean supportOutputStream() {
         return false;
     }
+
+    @Override
+    public boolean supportPresignedUrl() {
+        return true;
+    }
+
+    /**
+     * Reverses {@link #getObjectKey}: type/folderID/id, folders are skipped.
+     */
+    private StorageKey getStorageKey(StorageType type, String objectKey) {
+        String[] parts = objectKey.split("/", 3);
+        if (parts.length != 3 || parts[2].isEmpty() || parts[2].endsWith("/")) {
+            return null;
+        }
+        return new StorageKey(type, "null".equals(parts[1]) ? null : parts[1], parts[2]);
+    }
+
+    /**
+     * Fills the part buffer unless the stream ends first.
+     *
+     * @return number of bytes read
+     */
+    /**
+     * Fills the buffer from the offset on, short only at the end of the stream.
+     *
+     * @return number of bytes in the buffer
+     */
+    private int readPart(InputStream content, byte[] part, int offset) throws StorageException {
+        try {
+            return offset + IOUtils.read(content, part, offset, part.length - offset);
+        } catch (StorageException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private void abortQuietly(String bucketName, String objectKey, String uploadId) {
+        try {
+            awsS3Service.abortMultipartUpload(bucketName, objectKey, uploadId);
+        } catch (StorageException e) {
+            // S3 lifecycle rules remove abandoned parts
+        }
+    }
+
+    AwsS3Service getAwsS3Service() {
+        return awsS3Service;
+    }
+
+    String getObjectKey(StorageType type, String id, String folderID) {
+        return type.name() + "/" + folderID + "/" + id;
+    }
 }
@@ -0,0 +1,68 @@
+package com.profclub.storage.aws;
+
+import java.util.*;
+
+/**
+ * Keeps a sliding window of recent latency samples and estimates percentiles over it.
+ */
+class LatencyTracker {
+
+    private static final int WINDOW_SIZE = 1024;
+
+    /** Percentiles are not reported until this many samples are collected */
+    private static final int MIN_SAMPLES = 32;
+
+    /** The cached percentile is recomputed after this many new samples */
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+
+    private final double percentile;
+
+    private int count;
+
+    private int position;
+
+    private int sinceRecompute;
+
+    private volatile long cachedPercentile = -1;
+
+    /**
+     * Initializes a new instance of the class.
+     *
+     * @param percentile tracked percentile, between 0 and 1
+     */
+    LatencyTracker(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Records a latency sample.
+     *
+     * @param nanos
+     */
+    synchronized void record(long nanos) {
+        samples[position] = nanos;
+        position = (position + 1) % WINDOW_SIZE;
+        if (count < WINDOW_SIZE) {
+            count++;
+        }
+
+        if (count >= MIN_SAMPLES && (++sinceRecompute >= RECOMPUTE_INTERVAL || cachedPercentile < 0)) {
+            long[] window = Arrays.copyOf(samples, count);
+            Arrays.sort(window);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            cachedPercentile = window[Math.max(0, Math.min(count - 1, index))];
+            sinceRecompute = 0;
+        }
+    }
+
+    /**
+     * Gets the tracked percentile in nanoseconds, or -1 if there are not enough samples yet.
+     *
+     * @return
+     */
+    long getPercentile() {
+        return cachedPercentile;
+    }
+}
@@ -0,0 +1,57 @@
+package com.profclub.storage.aws;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Limits retries and hedged requests to a share of the original requests,
+ * so that extra requests cannot multiply load while S3 is degraded.
+ */
+class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    /** Retries always available to a service with little traffic */
+    private static final long RESERVE = 10 * SCALE;
+
+    private final long deposit;
+
+    private final AtomicLong balance = new AtomicLong(RESERVE);
+
+    /**
+     * Initializes a new instance of the class.
+     *
+     * @param ratio number of retries earned by each request
+     */
+    RetryBudget(double ratio) {
+        this.deposit = (long) (ratio * SCALE);
+    }
+
+    /**
+     * Registers an original request.
+     */
+    void onRequest() {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= RESERVE) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(RESERVE, current + deposit)));
+    }
+
+    /**
+     * Withdraws one retry from the budget.
+     *
+     * @return false if the budget is exhausted
+     */
+    boolean tryAcquire() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+}
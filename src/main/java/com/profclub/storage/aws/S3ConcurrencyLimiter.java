@@ -0,0 +1,190 @@
+package com.profclub.storage.aws;
+
+import com.amazonaws.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import org.slf4j.*;
+import java.util.concurrent.*;
+
+/**
+ * Adaptive limit of the concurrent S3 requests per key prefix.
+ *
+ * S3 scales request rates per prefix and answers 503 SlowDown above them. Every prefix gets an
+ * AIMD limit: each successful request completed while the prefix uses at least half of its limit raises
+ * it by {@code 1/limit}, about one per round of requests, and a throttling response halves it. Requests failing
+ * otherwise, e.g. client timeouts under overload, leave the limit as is, and so does an idle prefix, so limits
+ * only grow under the load that earns them. Requests above the limit wait for a slot until their deadline;
+ * when the queue of a prefix is full they are rejected at once instead of piling up.
+ */
+class S3ConcurrencyLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(S3ConcurrencyLimiter.class);
+
+    private static final String DELIM = "/";
+
+    /** Throttling responses of requests sent before a decrease do not decrease the limit again */
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AWSConfiguration awsConfiguration;
+
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    S3ConcurrencyLimiter(AWSConfiguration awsConfiguration) {
+        this.awsConfiguration = awsConfiguration;
+    }
+
+    /**
+     * Runs an S3 request within the limit of the prefix of its key.
+     *
+     * @param s3ObjectKey key or prefix the request targets, null for bucket requests
+     * @param call
+     * @return
+     */
+    <T> T execute(String s3ObjectKey, S3Call<T> call) throws Exception {
+        if (!awsConfiguration.isConcurrencyLimitEnabled()) {
+            return call.call();
+        }
+
+        Partition partition = partitions.computeIfAbsent(getPrefix(s3ObjectKey), Partition::new);
+        partition.acquire();
+        Outcome outcome = Outcome.FAILED;
+        try {
+            T result = call.call();
+            outcome = Outcome.SUCCEEDED;
+            return result;
+        } catch (AmazonServiceException ex) {
+            if (isThrottled(ex)) {
+                outcome = Outcome.THROTTLED;
+            }
+            throw ex;
+        } finally {
+            partition.release(outcome);
+        }
+    }
+
+    /**
+     * Gets the current limit of a prefix.
+     *
+     * @param s3ObjectKey
+     * @return
+     */
+    int getLimit(String s3ObjectKey) {
+        Partition partition = partitions.get(getPrefix(s3ObjectKey));
+        return partition == null ? awsConfiguration.getInitialConcurrencyLimit() : partition.getLimit();
+    }
+
+    // region <HELPERS>
+
+    private String getPrefix(String s3ObjectKey) {
+        if (s3ObjectKey == null) {
+            return "";
+        }
+        int end = -1;
+        for (int depth = 0; depth < awsConfiguration.getConcurrencyLimitPrefixDepth(); depth++) {
+            end = s3ObjectKey.indexOf(DELIM, end + 1);
+            if (end < 0) {
+                return s3ObjectKey;
+            }
+        }
+        return s3ObjectKey.substring(0, end);
+    }
+
+    private boolean isThrottled(AmazonServiceException ex) {
+        return ex.getStatusCode() == 503 || ex.getStatusCode() == 429 || "SlowDown".equals(ex.getErrorCode());
+    }
+
+    /**
+     * Outcome of a request, as seen by the limit.
+     */
+    private enum Outcome {
+        SUCCEEDED,
+        THROTTLED,
+        FAILED
+    }
+
+    /**
+     * Request sent to S3.
+     */
+    interface S3Call<T> {
+
+        T call() throws Exception;
+    }
+
+    /**
+     * Limit and queue of one prefix.
+     */
+    private class Partition {
+
+        private final String prefix;
+
+        private double limit = awsConfiguration.getInitialConcurrencyLimit();
+
+        private int inFlight;
+
+        private int waiting;
+
+        private long lastDecrease = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+        Partition(String prefix) {
+            this.prefix = prefix;
+        }
+
+        synchronized void acquire() throws StorageThrottledException, InterruptedException {
+            if (waiting == 0 && inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+            if (waiting >= awsConfiguration.getMaxQueuedRequests()) {
+                throw new StorageThrottledException(String.format(
+                        "S3 prefix '%s' overloaded: %d requests in flight, %d queued", prefix, inFlight, waiting));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(awsConfiguration.getQueueTimeoutMillis());
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new StorageThrottledException(String.format(
+                                "S3 prefix '%s' overloaded: no slot within %d ms", prefix, awsConfiguration.getQueueTimeoutMillis()));
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                inFlight++;
+                if (inFlight < (int) limit) {
+                    // the limit may have grown by more than the slot taken
+                    notify();
+                }
+            } finally {
+                waiting--;
+            }
+        }
+
+        synchronized void release(Outcome outcome) {
+            boolean saturated = inFlight >= limit / 2;
+            inFlight--;
+            if (outcome == Outcome.THROTTLED) {
+                long now = System.nanoTime();
+                if (now - lastDecrease >= DECREASE_INTERVAL_NANOS) {
+                    lastDecrease = now;
+                    limit = Math.max(Math.max(1, awsConfiguration.getMinConcurrencyLimit()), limit / 2);
+                    LOG.debug("S3 prefix '{}' throttled, concurrency limit decreased to {}", prefix, (int) limit);
+                }
+            } else if (outcome == Outcome.SUCCEEDED && saturated) {
+                limit = Math.min(awsConfiguration.getMaxConcurrencyLimit(), limit + 1 / limit);
+            }
+            if (inFlight < (int) limit) {
+                notify();
+            }
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,288 @@
+package com.profclub.storage.aws;
+
+import com.amazonaws.*;
+import com.amazonaws.services.s3.*;
+import com.amazonaws.services.s3.model.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.util.*;
+import org.slf4j.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Resilience layer for S3 reads.
+ *
+ * When a GET has not returned its first byte within a percentile of recent first-byte latencies,
+ * a second GET is sent and whichever answers first is used. The first GET runs on the caller thread,
+ * only the hedge takes a pooled thread, so a read which needs no hedge occupies a single thread. Failed reads are retried with
+ * jittered exponential backoff. Hedges and retries share a {@link RetryBudget}, every attempt
+ * takes a slot of the {@link S3ConcurrencyLimiter}.
+ */
+class S3HedgedReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(S3HedgedReader.class);
+
+    private final AmazonS3 s3Client;
+
+    private final AWSConfiguration awsConfiguration;
+
+    private final LatencyTracker latencyTracker;
+
+    private final RetryBudget retryBudget;
+
+    private final S3ConcurrencyLimiter concurrencyLimiter;
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    S3HedgedReader(AmazonS3 s3Client, AWSConfiguration awsConfiguration, S3ConcurrencyLimiter concurrencyLimiter) {
+        this.s3Client = s3Client;
+        this.awsConfiguration = awsConfiguration;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.latencyTracker = new LatencyTracker(awsConfiguration.getHedgeLatencyPercentile());
+        this.retryBudget = new RetryBudget(awsConfiguration.getRetryBudgetRatio());
+        this.executor = Executors.newCachedThreadPool(new NamedThreadFactory("s3-read"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("s3-hedge"));
+    }
+
+    /**
+     * Reads an S3 object, hedging and retrying as configured.
+     *
+     * @param request
+     * @return the response, or null if a constraint of the request was not met
+     */
+    S3ReadResult read(GetObjectRequest request) throws Exception {
+        retryBudget.onRequest();
+
+        int retry = 0;
+        while (true) {
+            try {
+                return awsConfiguration.isHedgedReadEnabled() ? hedgedFetch(request) : fetch(request, null);
+            } catch (Exception ex) {
+                if (retry >= awsConfiguration.getReadMaxRetries() || !isRetryable(ex) || !retryBudget.tryAcquire()) {
+                    throw ex;
+                }
+                long delay = backoffDelay(retry++);
+                LOG.debug("S3 read failed, retry {} in {} ms: {}", retry, delay, ex.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Stops the hedge threads.
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    // region <HELPERS>
+
+    private S3ReadResult hedgedFetch(GetObjectRequest request) throws Exception {
+        long threshold = latencyTracker.getPercentile();
+        if (threshold < 0) {
+            return fetch(request, null);
+        }
+
+        long delay = Math.max(threshold, TimeUnit.MILLISECONDS.toNanos(awsConfiguration.getMinHedgeDelayMillis()));
+        AtomicBoolean claimed = new AtomicBoolean();
+        FutureTask<S3ReadResult> hedge = new FutureTask<>(() -> fetch(request, claimed));
+        ScheduledFuture<?> timer = scheduler.schedule(() -> sendHedge(hedge, claimed, delay), delay, TimeUnit.NANOSECONDS);
+        try {
+            return fetch(request, claimed);
+        } catch (Exception ex) {
+            if (timer.cancel(false)) {
+                throw ex;
+            }
+            // the hedge was sent, unless cancelled, and may still answer
+            try {
+                return awaitHedge(hedge, claimed);
+            } catch (CancellationException hedgeEx) {
+                throw ex;
+            } catch (Exception hedgeEx) {
+                throw ex instanceof LostRaceException ? hedgeEx : ex;
+            }
+        } finally {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * Sends the hedge of a read still waiting for its first byte, otherwise cancels it.
+     */
+    private void sendHedge(FutureTask<S3ReadResult> hedge, AtomicBoolean claimed, long delay) {
+        if (claimed.get() || !retryBudget.tryAcquire()) {
+            hedge.cancel(false);
+            return;
+        }
+        LOG.debug("S3 read slower than {} ms, sending hedged request", TimeUnit.NANOSECONDS.toMillis(delay));
+        try {
+            executor.execute(hedge);
+        } catch (RejectedExecutionException ex) {
+            hedge.cancel(false);
+        }
+    }
+
+    private S3ReadResult awaitHedge(FutureTask<S3ReadResult> hedge, AtomicBoolean claimed) throws Exception {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return hedge.get();
+                } catch (InterruptedException ex) {
+                    if (claimed.compareAndSet(false, true)) {
+                        // a late hedge aborts its response
+                        throw ex;
+                    }
+                    // the hedge won and returns right away, its response must not leak
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends a GET and waits for the first byte of content.
+     *
+     * @param request
+     * @param claimed shared by the requests of one hedged read, the first to set it wins
+     * @return
+     */
+    private S3ReadResult fetch(GetObjectRequest request, AtomicBoolean claimed) throws Exception {
+        long start = System.nanoTime();
+        S3Object s3Object = concurrencyLimiter.execute(request.getKey(), () -> s3Client.getObject(request));
+        if (s3Object == null) {
+            // ETag or modification time constraint not met
+            latencyTracker.record(System.nanoTime() - start);
+            if (claimed != null && !claimed.compareAndSet(false, true)) {
+                throw new LostRaceException();
+            }
+            return null;
+        }
+        S3ObjectInputStream stream = s3Object.getObjectContent();
+
+        int firstByte;
+        try {
+            firstByte = stream.read();
+        } catch (IOException ex) {
+            stream.abort();
+            throw ex;
+        }
+        latencyTracker.record(System.nanoTime() - start);
+
+        if (claimed != null && !claimed.compareAndSet(false, true)) {
+            stream.abort();
+            throw new LostRaceException();
+        }
+        return new S3ReadResult(s3Object, new PrefetchedInputStream(stream, firstByte));
+    }
+
+    private long backoffDelay(int retry) {
+        long cap = Math.min(awsConfiguration.getRetryMaxDelayMillis(),
+                awsConfiguration.getRetryBaseDelayMillis() << Math.min(retry, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private boolean isRetryable(Exception ex) {
+        if (ex instanceof StorageThrottledException) {
+            // retrying a rejected read would only add to the queue
+            return false;
+        }
+        if (ex instanceof AmazonServiceException) {
+            int status = ((AmazonServiceException) ex).getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        if (ex instanceof AmazonClientException) {
+            return ((AmazonClientException) ex).isRetryable();
+        }
+        return ex instanceof IOException;
+    }
+
+    /**
+     * Thrown by the request of a hedged read which completed after the other one.
+     */
+    private static class LostRaceException extends IOException {
+    }
+
+    /**
+     * Replays the byte read while measuring first-byte latency.
+     */
+    private static class PrefetchedInputStream extends FilterInputStream {
+
+        private static final int CONSUMED = -2;
+
+        private int prefetched;
+
+        PrefetchedInputStream(InputStream in, int prefetched) {
+            super(in);
+            this.prefetched = prefetched;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (prefetched != CONSUMED) {
+                int b = prefetched;
+                prefetched = CONSUMED;
+                return b;
+            }
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (prefetched == CONSUMED || len == 0) {
+                return super.read(b, off, len);
+            }
+            if (prefetched < 0) {
+                prefetched = CONSUMED;
+                return -1;
+            }
+            b[off] = (byte) prefetched;
+            prefetched = CONSUMED;
+            if (len == 1) {
+                return 1;
+            }
+            int n = super.read(b, off + 1, len - 1);
+            return n < 0 ? 1 : n + 1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (prefetched == CONSUMED || n <= 0) {
+                return super.skip(n);
+            }
+            if (prefetched < 0) {
+                prefetched = CONSUMED;
+                return 0;
+            }
+            prefetched = CONSUMED;
+            return 1 + super.skip(n - 1);
+        }
+
+        @Override
+        public int available() throws IOException {
+            int pending = prefetched >= 0 ? 1 : 0;
+            return pending + super.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,34 @@
+package com.profclub.storage.aws;
+
+import com.amazonaws.services.s3.model.*;
+import java.io.*;
+
+/**
+ * Response of an S3 GET whose first byte has already arrived.
+ */
+class S3ReadResult {
+
+    private final S3Object s3Object;
+
+    private final InputStream content;
+
+    S3ReadResult(S3Object s3Object, InputStream content) {
+        this.s3Object = s3Object;
+        this.content = content;
+    }
+
+    ObjectMetadata getMetadata() {
+        return s3Object.getObjectMetadata();
+    }
+
+    InputStream getContent() {
+        return content;
+    }
+
+    /**
+     * Drops the underlying connection instead of draining the remaining content.
+     */
+    void abort() {
+        s3Object.getObjectContent().abort();
+    }
+}
@@ -0,0 +1,165 @@
+package com.profclub.storage.coalesce;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.util.*;
+import org.apache.commons.io.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Storage provider decorator which coalesces concurrent identical read, exist and size requests,
+ * so that a burst of callers asking for the same item results in a single backend call.
+ *
+ * Read content is buffered once and every caller gets its own stream over the shared buffer.
+ * Since the whole item is held in memory while callers consume it, coalesced reads are limited
+ * to the configured storage types (by default avatars and cover images) and to items up to a
+ * maximum size. A larger item is streamed to the caller which read it first, the callers
+ * waiting for it read it again on their own.
+ */
+public class CoalescingStorageProvider implements IStorageProvider {
+
+    public static final int DEFAULT_MAX_COALESCED_BYTES = 1024 * 1024;
+
+    /** Shared result of a read too large to be buffered, compared by identity */
+    private static final byte[] OVERSIZED = new byte[0];
+
+    private final IStorageProvider delegate;
+
+    private final Set<StorageType> coalescedReadTypes;
+
+    private final int maxCoalescedBytes;
+
+    private final SingleFlight<StorageKey, byte[]> reads = new SingleFlight<>();
+
+    private final SingleFlight<StorageKey, Boolean> exists = new SingleFlight<>();
+
+    private final SingleFlight<StorageKey, Long> sizes = new SingleFlight<>();
+
+    public CoalescingStorageProvider(IStorageProvider delegate) {
+        this(delegate, EnumSet.of(StorageType.Avatar, StorageType.CoverImage));
+    }
+
+    /**
+     * @param delegate
+     * @param coalescedReadTypes storage types whose reads are coalesced, others are passed through
+     */
+    public CoalescingStorageProvider(IStorageProvider delegate, Set<StorageType> coalescedReadTypes) {
+        this(delegate, coalescedReadTypes, DEFAULT_MAX_COALESCED_BYTES);
+    }
+
+    /**
+     * @param delegate
+     * @param coalescedReadTypes storage types whose reads are coalesced, others are passed through
+     * @param maxCoalescedBytes size up to which read content is buffered and shared
+     */
+    public CoalescingStorageProvider(IStorageProvider delegate, Set<StorageType> coalescedReadTypes, int maxCoalescedBytes) {
+        this.delegate = delegate;
+        this.coalescedReadTypes = coalescedReadTypes.isEmpty()
+                ? EnumSet.noneOf(StorageType.class)
+                : EnumSet.copyOf(coalescedReadTypes);
+        this.maxCoalescedBytes = Math.min(maxCoalescedBytes, Integer.MAX_VALUE - 9);
+    }
+
+    @Override
+    public void upload(StorageType type, String id, String folderID, byte[] content) throws StorageException {
+        delegate.upload(type, id, folderID, content);
+    }
+
+    @Override
+    public OutputStream create(StorageType type, String id, String folderID) throws StorageException {
+        return delegate.create(type, id, folderID);
+    }
+
+    @Override
+    public InputStream read(StorageType type, String id, String folderID) throws StorageException {
+        if (!coalescedReadTypes.contains(type)) {
+            return delegate.read(type, id, folderID);
+        }
+
+        InputStream[] streamed = new InputStream[1];
+        byte[] content = reads.execute(new StorageKey(type, folderID, id), () -> {
+            InputStream in = delegate.read(type, id, folderID);
+            try {
+                byte[] head = StreamHelper.readAtMost(in, maxCoalescedBytes + 1);
+                if (head.length <= maxCoalescedBytes) {
+                    return head;
+                }
+                streamed[0] = new SequenceInputStream(new ByteArrayInputStream(head), in);
+                return OVERSIZED;
+            } catch (IOException e) {
+                throw new StorageException(e);
+            } finally {
+                if (streamed[0] == null) {
+                    IOUtils.closeQuietly(in);
+                }
+            }
+        });
+
+        if (content != OVERSIZED) {
+            return new ByteArrayInputStream(content);
+        }
+        return streamed[0] != null ? streamed[0] : delegate.read(type, id, folderID);
+    }
+
+    @Override
+    public ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        return delegate.readIfModified(type, id, folderID, eTag, ifModifiedSince);
+    }
+
+    @Override
+    public void delete(StorageType type, String id, String folderID) throws StorageException {
+        delegate.delete(type, id, folderID);
+    }
+
+    @Override
+    public void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        delegate.move(fromType, fromId, toType, toId, folderID);
+    }
+
+    @Override
+    public void copy(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        delegate.copy(fromType, fromId, toType, toId, folderID);
+    }
+
+    @Override
+    public boolean exist(StorageType type, String id, String folderID) throws StorageException {
+        return exists.execute(new StorageKey(type, folderID, id), () -> delegate.exist(type, id, folderID));
+    }
+
+    @Override
+    public long getSize(StorageType type, String id, String folderID) throws StorageException {
+        return sizes.execute(new StorageKey(type, folderID, id), () -> delegate.getSize(type, id, folderID));
+    }
+
+    @Override
+    public long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        return delegate.getSizeIfExists(type, id, folderID);
+    }
+
+    @Override
+    public URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return delegate.getPresignedReadUrl(type, id, folderID, expiresInMillis);
+    }
+
+    @Override
+    public URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return delegate.getPresignedWriteUrl(type, id, folderID, expiresInMillis);
+    }
+
+    @Override
+    public StorageProviderType getProvider() {
+        return delegate.getProvider();
+    }
+
+    @Override
+    public boolean supportOutputStream() {
+        return delegate.supportOutputStream();
+    }
+
+    @Override
+    public boolean supportPresignedUrl() {
+        return delegate.supportPresignedUrl();
+    }
+}
@@ -0,0 +1,75 @@
+package com.profclub.storage.coalesce;
+
+import com.profclub.storage.exception.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs at most one call per key at a time; callers arriving while a call is in flight
+ * wait for it and share its result or its failure.
+ *
+ * @param <K> key type
+ * @param <V> result type, shared by all callers so it should be immutable
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Executes the call for the key, or joins the one already in flight.
+     *
+     * @param key
+     * @param call
+     * @return
+     */
+    public V execute(K key, Call<V> call) throws StorageException {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+
+        if (existing == null) {
+            try {
+                V value = call.call();
+                created.complete(value);
+                return value;
+            } catch (Throwable e) {
+                // waiters must be released on any failure, errors included
+                created.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, created);
+            }
+        }
+
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) {
+                throw (StorageException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new StorageException(cause);
+        }
+    }
+
+    /**
+     * Gets the number of calls currently in flight.
+     *
+     * @return
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    public interface Call<V> {
+
+        V call() throws StorageException;
+    }
+}
@@ -1,6 +1,142 @@
 package com.profclub.storage.config;
 
 public interface AWSConfiguration {
+	/**
+	 * How the configured bucket is checked at startup.
+	 */
+	enum StartupMode {
+		/** The bucket is checked, and created if missing, before the service starts */
+		EAGER,
+		/** The bucket is checked in the background, the service starts at once */
+		LAZY
+	}
+
 	String getS3BaseBucket();
 
+	default StartupMode getStartupMode() {
+		return StartupMode.EAGER;
+	}
+
+	/**
+	 * Opens pooled connections to S3 in the background at startup.
+	 */
+	default boolean isPrewarmEnabled() {
+		return true;
+	}
+
+	/**
+	 * Number of connections opened by the pre-warming.
+	 */
+	default int getPrewarmConnections() {
+		return 8;
+	}
+
+	/**
+	 * Sends a second GET when the first one has not returned its first byte
+	 * within the hedge threshold, and uses whichever answers first.
+	 */
+	default boolean isHedgedReadEnabled() {
+		return true;
+	}
+
+	/**
+	 * Percentile of recent first-byte latencies used as the hedge threshold.
+	 */
+	default double getHedgeLatencyPercentile() {
+		return 0.95;
+	}
+
+	/**
+	 * Lower bound of the hedge threshold in milliseconds.
+	 */
+	default long getMinHedgeDelayMillis() {
+		return 20;
+	}
+
+	/**
+	 * Maximum number of retries of a failed S3 read.
+	 */
+	default int getReadMaxRetries() {
+		return 3;
+	}
+
+	/**
+	 * Base delay of the jittered exponential backoff between read retries.
+	 */
+	default long getRetryBaseDelayMillis() {
+		return 50;
+	}
+
+	/**
+	 * Upper bound of the delay between read retries.
+	 */
+	default long getRetryMaxDelayMillis() {
+		return 2000;
+	}
+
+	/**
+	 * Share of reads that may be retried or hedged (0.1 = one extra request per ten reads).
+	 */
+	default double getRetryBudgetRatio() {
+		return 0.1;
+	}
+
+	/**
+	 * Part size of streamed uploads, larger streams are uploaded in parts (5 MB minimum).
+	 * A stream may have up to 10000 parts.
+	 */
+	default int getStreamingPartSizeBytes() {
+		return 16 * 1024 * 1024;
+	}
+
+	/**
+	 * Limits the concurrent S3 requests per key prefix, adapting the limit
+	 * to the throttling responses of S3.
+	 */
+	default boolean isConcurrencyLimitEnabled() {
+		return true;
+	}
+
+	/**
+	 * Number of leading key segments forming the prefix a limit applies to.
+	 */
+	default int getConcurrencyLimitPrefixDepth() {
+		return 1;
+	}
+
+	/**
+	 * Concurrency limit of a prefix before any response adapted it.
+	 */
+	default int getInitialConcurrencyLimit() {
+		return 32;
+	}
+
+	/**
+	 * Lower bound of the concurrency limit of a prefix.
+	 */
+	default int getMinConcurrencyLimit() {
+		return 1;
+	}
+
+	/**
+	 * Upper bound of the concurrency limit of a prefix.
+	 */
+	default int getMaxConcurrencyLimit() {
+		return 512;
+	}
+
+	/**
+	 * Maximum number of requests waiting for a prefix, further requests are rejected at once.
+	 */
+	default int getMaxQueuedRequests() {
+		return 256;
+	}
+
+	/**
+	 * Maximum time a request waits for a prefix before it is rejected.
+	 */
+	default long getQueueTimeoutMillis() {
+		return 2000;
+	}
+
 }
@@ -3,4 +3,18 @@ package com.profclub.storage.config;
 public interface LocalStorageConfiguration {
 	String getBasePath();
 
+	/**
+	 * Public base URL of the presigned request handler, presigned URLs are not supported if null.
+	 */
+	default String getPresignBaseUrl() {
+		return null;
+	}
+
+	/**
+	 * Secret key of the presigned URL signatures, presigned URLs are not supported if null.
+	 */
+	default String getPresignSecret() {
+		return null;
+	}
+
 }
@@ -0,0 +1,23 @@
+package com.profclub.storage.config;
+
+public interface ResumableUploadConfiguration {
+	/**
+	 * Directory holding the checkpoints of upload sessions.
+	 */
+	String getCheckpointPath();
+
+	/**
+	 * Sessions not updated for this long are aborted by the background cleanup.
+	 */
+	default long getSessionTimeoutMillis() {
+		return 24L * 60 * 60 * 1000;
+	}
+
+	/**
+	 * Interval of the background cleanup of stale sessions.
+	 */
+	default long getCleanupIntervalMillis() {
+		return 10L * 60 * 1000;
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.profclub.storage.config;
+
+public interface TieredStorageConfiguration {
+	/**
+	 * Capacity budget of the hot (local disk) tier in bytes.
+	 */
+	long getHotCapacityBytes();
+
+	/**
+	 * Estimated number of recent accesses after which a cold item is promoted.
+	 */
+	default int getPromotionThreshold() {
+		return 4;
+	}
+
+	/**
+	 * Items larger than this are never promoted.
+	 */
+	default long getMaxPromotedItemBytes() {
+		return 64L * 1024 * 1024;
+	}
+
+	/**
+	 * Expected number of distinct items accessed, used to size the frequency sketch.
+	 */
+	default int getExpectedItemCount() {
+		return 100_000;
+	}
+
+	/**
+	 * Interval of the background demotion / admission cycle.
+	 */
+	default long getMigrationIntervalMillis() {
+		return 30_000;
+	}
+
+	/**
+	 * Number of threads copying items between tiers.
+	 */
+	default int getMigrationThreads() {
+		return 2;
+	}
+
+}
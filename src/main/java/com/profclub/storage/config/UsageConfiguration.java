@@ -0,0 +1,32 @@
+package com.profclub.storage.config;
+
+import com.profclub.storage.*;
+
+public interface UsageConfiguration {
+	/**
+	 * Path of the usage snapshot file.
+	 */
+	String getSnapshotPath();
+
+	/**
+	 * Interval of the snapshot of changed usage counters.
+	 */
+	default long getSnapshotIntervalMillis() {
+		return 10L * 1000;
+	}
+
+	/**
+	 * Interval of the reconcile of the counters with a scan of the stored items.
+	 */
+	default long getReconcileIntervalMillis() {
+		return 24L * 60 * 60 * 1000;
+	}
+
+	/**
+	 * Maximum bytes a folder may store for a storage type, uploads growing it further are rejected.
+	 */
+	default long getQuotaBytes(String folderID, StorageType type) {
+		return Long.MAX_VALUE;
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.profclub.storage.config;
+
+public interface WriteBehindConfiguration {
+	/**
+	 * Path of the replication journal file.
+	 */
+	String getJournalPath();
+
+	/**
+	 * Number of items replicated in parallel.
+	 */
+	default int getReplicationThreads() {
+		return 4;
+	}
+
+	/**
+	 * Maximum number of items replicated per batch.
+	 */
+	default int getReplicationBatchSize() {
+		return 64;
+	}
+
+	/**
+	 * Delay between replication runs.
+	 */
+	default long getReplicationIntervalMillis() {
+		return 500;
+	}
+
+	/**
+	 * Delay before an item which failed to replicate is retried, doubled on every further failure.
+	 * Other items keep replicating meanwhile.
+	 */
+	default long getReplicationRetryBaseDelayMillis() {
+		return 1000;
+	}
+
+	/**
+	 * Upper bound of the delay between replication retries of an item.
+	 */
+	default long getReplicationRetryMaxDelayMillis() {
+		return 5L * 60 * 1000;
+	}
+
+	/**
+	 * Removes the local copy of an item once it is replicated.
+	 */
+	default boolean isEvictAfterReplication() {
+		return false;
+	}
+
+	/**
+	 * The journal is rewritten with its pending entries once it grows over this size
+	 * and to twice its size after the previous rewrite.
+	 */
+	default long getJournalCompactionBytes() {
+		return 16L * 1024 * 1024;
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.profclub.storage.exception;
+
+/**
+ * Thrown when a write would take a folder over its storage quota.
+ */
+public class StorageQuotaExceededException extends StorageException {
+
+    public StorageQuotaExceededException() {
+    }
+
+    public StorageQuotaExceededException(String message) {
+        super(message);
+    }
+
+    public StorageQuotaExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public StorageQuotaExceededException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,22 @@
+package com.profclub.storage.exception;
+
+/**
+ * Thrown when a request is rejected because the backend is overloaded.
+ */
+public class StorageThrottledException extends StorageException {
+
+    public StorageThrottledException() {
+    }
+
+    public StorageThrottledException(String message) {
+        super(message);
+    }
+
+    public StorageThrottledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public StorageThrottledException(Throwable cause) {
+        super(cause);
+    }
+}
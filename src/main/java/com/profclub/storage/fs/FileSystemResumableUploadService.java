@@ -0,0 +1,100 @@
+package com.profclub.storage.fs;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.upload.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Resumable uploads written to a staging file under the storage base path, chunk N at offset
+ * N * chunk size. Committing publishes the staging file as the item.
+ */
+public class FileSystemResumableUploadService extends AbstractResumableUploadService {
+
+    private static final int MAX_CHUNKS = Integer.MAX_VALUE;
+
+    private final FileSystemStorageProvider provider;
+
+    public FileSystemResumableUploadService(FileSystemStorageProvider provider, ResumableUploadConfiguration configuration) {
+        super(configuration);
+        this.provider = provider;
+    }
+
+    @Override
+    protected void validateChunkSize(long chunkSize) throws StorageException {
+        if (chunkSize <= 0) {
+            throw new StorageException("Chunk size must be positive: " + chunkSize);
+        }
+    }
+
+    @Override
+    protected int getMaxChunks() {
+        return MAX_CHUNKS;
+    }
+
+    @Override
+    protected String startUpload(UploadSession session) throws StorageException {
+        Path stagingFile = getStagingDirectory().resolve(session.getSessionId());
+        try {
+            Files.createDirectories(stagingFile.getParent());
+            Files.createFile(stagingFile);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return stagingFile.getFileName().toString();
+    }
+
+    @Override
+    protected String writeChunk(UploadSession session, int chunkIndex, byte[] content) throws StorageException {
+        try (FileChannel channel = FileChannel.open(getStagingFile(session), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            long position = chunkIndex * session.getChunkSize();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            return null;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    protected void completeUpload(UploadSession session) throws StorageException {
+        StorageKey key = session.getKey();
+        if (provider.exist(key.getType(), key.getId(), key.getFolderID())) {
+            throw new StorageItemAlreadyExistsException(key + " Already exists");
+        }
+
+        Path stagingFile = getStagingFile(session);
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+            // a chunk written before a crash but never checkpointed may lie past the end
+            channel.truncate(session.getBytesReceived());
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        // fails rather than replacing an item created meanwhile
+        provider.publish(stagingFile, key.getType(), key.getId(), key.getFolderID());
+    }
+
+    @Override
+    protected void abortUpload(UploadSession session) throws StorageException {
+        try {
+            Files.deleteIfExists(getStagingFile(session));
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private Path getStagingDirectory() {
+        return provider.getBasePath().resolve(FileSystemStorageProvider.STAGING_DIRECTORY);
+    }
+
+    private Path getStagingFile(UploadSession session) {
+        return getStagingDirectory().resolve(session.getUploadHandle());
+    }
+}
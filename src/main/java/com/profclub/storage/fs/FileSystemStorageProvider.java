@@ -3,16 +3,27 @@ package com.profclub.storage.fs;
 import com.profclub.storage.*;
 import com.profclub.storage.config.*;
 import com.profclub.storage.exception.*;
+import com.profclub.storage.util.*;
 import javax.annotation.*;
 import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
 import java.nio.file.*;
+import java.nio.file.attribute.*;
 
-public class FileSystemStorageProvider implements IStorageProvider {
+public class FileSystemStorageProvider implements IListableStorageProvider {
+
+    /** Directory under the base path holding files not yet published, not a storage type so never walked */
+    static final String STAGING_DIRECTORY = ".staging";
+
+    private static final String STAGING_SUFFIX = ".part";
 
     private LocalStorageConfiguration localStorageConfiguration;
 
     private Path basePath;
 
+    private PresignedUrlSigner presignedUrlSigner;
+
     public FileSystemStorageProvider(LocalStorageConfiguration localStorageConfiguration) {
         this.localStorageConfiguration = localStorageConfiguration;
     }
@@ -20,12 +31,20 @@ public class FileSystemStorageProvider implements IStorageProvider {
     @PostConstruct
     public void init() {
         this.basePath = Paths.get(localStorageConfiguration.getBasePath());
+        // leftovers of writes interrupted by a crash
+        removeStagingFiles();
+
+        String presignBaseUrl = localStorageConfiguration.getPresignBaseUrl();
+        String presignSecret = localStorageConfiguration.getPresignSecret();
+        if (presignBaseUrl != null && presignSecret != null) {
+            this.presignedUrlSigner = new PresignedUrlSigner(presignBaseUrl, presignSecret);
+        }
     }
 
     @Override
     public void upload(StorageType type, String id, String folderID, byte[] content) throws StorageException {
         try(OutputStream out = create(type, id, folderID)){
-            out.write(content);
+            StreamHelper.write(out, content);
         } catch (IOException e) {
             throw new StorageException(e);
         }
@@ -58,6 +77,30 @@ public class FileSystemStorageProvider implements IStorageProvider {
         }
     }
 
+    /**
+     * The ETag of a file is derived from its size and modification time, no content is read.
+     */
+    @Override
+    public ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        Path filePath = getFilePath(type, id, folderID);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            String currentETag = Long.toHexString(lastModified) + "-" + Long.toHexString(attributes.size());
+
+            boolean notModified = eTag != null
+                    ? currentETag.equals(normalizeETag(eTag))
+                    // HTTP dates have a precision of one second
+                    : ifModifiedSince > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+            if (notModified) {
+                return ConditionalReadResult.notModified(currentETag, lastModified);
+            }
+            return ConditionalReadResult.modified(Files.newInputStream(filePath), currentETag, lastModified);
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
     @Override
     public void delete(StorageType type, String id, String folderID) throws StorageException {
         Path filePath = getFilePath(type, id, folderID);
@@ -75,12 +118,28 @@ public class FileSystemStorageProvider implements IStorageProvider {
 
     @Override
     public void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
-
+        Path sourcePath = getFilePath(fromType, fromId, folderID);
+        Path targetPath = getTransferTarget(sourcePath, toType, toId, folderID);
+        try {
+            Files.move(sourcePath, targetPath);
+        } catch (FileAlreadyExistsException e) {
+            throw new StorageItemAlreadyExistsException(targetPath.toString() + " Already exists");
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
     }
 
     @Override
     public void copy(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
-
+        Path sourcePath = getFilePath(fromType, fromId, folderID);
+        Path targetPath = getTransferTarget(sourcePath, toType, toId, folderID);
+        try {
+            Files.copy(sourcePath, targetPath);
+        } catch (FileAlreadyExistsException e) {
+            throw new StorageItemAlreadyExistsException(targetPath.toString() + " Already exists");
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
     }
 
     @Override
@@ -106,6 +165,28 @@ public class FileSystemStorageProvider implements IStorageProvider {
         }
     }
 
+    @Override
+    public long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        Path filePath = getFilePath(type, id, folderID);
+        try {
+            return Files.size(filePath);
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return presign("GET", type, id, folderID, expiresInMillis);
+    }
+
+    @Override
+    public URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return presign("PUT", type, id, folderID, expiresInMillis);
+    }
+
     @Override
     public StorageProviderType getProvider() {
         return StorageProviderType.FS;
@@ -116,7 +197,208 @@ public class FileSystemStorageProvider implements IStorageProvider {
         return true;
     }
 
-    private void createParentDirectories(Path path) throws IOException {
+    @Override
+    public boolean supportPresignedUrl() {
+        return presignedUrlSigner != null;
+    }
+
+    PresignedUrlSigner getPresignedUrlSigner() {
+        return presignedUrlSigner;
+    }
+
+    /**
+     * Forces the content of a stored item and its directory entry to the disk.
+     */
+    public void sync(StorageType type, String id, String folderID) throws StorageException {
+        Path filePath = getFilePath(type, id, folderID);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        forceDirectory(filePath.getParent());
+    }
+
+    /**
+     * Creates a staging file outside the item tree. Content written to it becomes an item only
+     * once published, so a failed or interrupted write leaves no partial item.
+     *
+     * @return
+     */
+    public Path createStagingFile() throws StorageException {
+        try {
+            Path directory = basePath.resolve(STAGING_DIRECTORY);
+            Files.createDirectories(directory);
+            return Files.createTempFile(directory, null, STAGING_SUFFIX);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * Publishes a complete staging file as an item, forcing its content and directory entry to the disk.
+     * The item is created exclusively: an existing item is never replaced, even by a concurrent publish.
+     *
+     * @param stagingFile
+     * @param type
+     * @param id
+     * @param folderID
+     */
+    public void publish(Path stagingFile, StorageType type, String id, String folderID) throws StorageException {
+        Path filePath = getFilePath(type, id, folderID);
+        try {
+            try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            createParentDirectories(filePath);
+            try {
+                // linking fails atomically if the item exists, unlike a rename
+                Files.createLink(filePath, stagingFile);
+                Files.delete(stagingFile);
+            } catch (UnsupportedOperationException e) {
+                Files.move(stagingFile, filePath);
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new StorageItemAlreadyExistsException(filePath.toString() + " Already exists");
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        forceDirectory(filePath.getParent());
+    }
+
+    /**
+     * Publishes a complete staging file in place of an item, forcing its content and directory entry to the disk.
+     * The item is swapped by a rename, so readers see either the old or the new content, never a partial one.
+     *
+     * @param stagingFile
+     * @param type
+     * @param id
+     * @param folderID
+     */
+    public void replace(Path stagingFile, StorageType type, String id, String folderID) throws StorageException {
+        Path filePath = getFilePath(type, id, folderID);
+        try {
+            try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            createParentDirectories(filePath);
+            Files.move(stagingFile, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        forceDirectory(filePath.getParent());
+    }
+
+    /**
+     * Removes a staging file which will not be published.
+     *
+     * @param stagingFile
+     */
+    public void discard(Path stagingFile) {
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException e) {
+            // removed with the other leftovers on the next startup
+        }
+    }
+
+    /**
+     * Visits every stored item, without loading the whole listing in memory.
+     *
+     * @param visitor
+     */
+    @Override
+    public void walk(StorageItemVisitor visitor) throws StorageException {
+        if (Files.notExists(basePath)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(basePath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    StorageKey key = getStorageKey(basePath.relativize(file));
+                    if (key != null && attrs.isRegularFile()) {
+                        visitor.visit(new StorageItem(key, attrs.size(), attrs.lastModifiedTime().toMillis(), null));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (StorageException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * Resolves the target of a move or copy, the existing target is not replaced as on {@link #create}.
+     */
+    private Path getTransferTarget(Path sourcePath, StorageType toType, String toId, String folderID) throws StorageException {
+        if (Files.notExists(sourcePath)) {
+            throw new StorageItemAlreadyExistsException(sourcePath.toString() + " does not exist");
+        }
+        Path targetPath = getFilePath(toType, toId, folderID);
+        if (Files.exists(targetPath)) {
+            throw new StorageItemAlreadyExistsException(targetPath.toString() + " Already exists");
+        }
+        try {
+            createParentDirectories(targetPath);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return targetPath;
+    }
+
+    /**
+     * Forces a directory entry to the disk, where the platform supports opening directories.
+     */
+    private void forceDirectory(Path directory) throws StorageException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException | UnsupportedOperationException e) {
+            // directories cannot be opened on Windows
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private void removeStagingFiles() {
+        Path directory = basePath.resolve(STAGING_DIRECTORY);
+        if (Files.notExists(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + STAGING_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            // retried on the next startup
+        }
+    }
+
+    private URL presign(String method, StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        if (presignedUrlSigner == null) {
+            throw new StorageException("presigned urls require presign base url and secret configuration");
+        }
+        try {
+            return presignedUrlSigner.sign(method, new StorageKey(type, folderID, id), System.currentTimeMillis() + expiresInMillis);
+        } catch (MalformedURLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * Strips the quotes and weak validator prefix an HTTP client may send.
+     */
+    private String normalizeETag(String eTag) {
+        String value = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    void createParentDirectories(Path path) throws IOException {
         try {
             Files.createDirectories(path.getParent());
         } catch (FileAlreadyExistsException e) {
@@ -124,7 +406,11 @@ public class FileSystemStorageProvider implements IStorageProvider {
         }
     }
 
-    private Path getFilePath(StorageType type, String id, String folderID) throws StorageException {
+    Path getBasePath() {
+        return basePath;
+    }
+
+    Path getFilePath(StorageType type, String id, String folderID) throws StorageException {
         //validate id
 
         if (folderID != null) {
@@ -138,4 +424,29 @@ public class FileSystemStorageProvider implements IStorageProvider {
                     .resolve(id);
         }
     }
+
+    /**
+     * Reverses {@link #getFilePath}: [folderID/]type/id
+     */
+    private StorageKey getStorageKey(Path relativePath) {
+        int count = relativePath.getNameCount();
+        if (count < 2 || count > 3) {
+            return null;
+        }
+        StorageType type = getStorageType(relativePath.getName(count - 2).toString());
+        if (type == null) {
+            return null;
+        }
+        String folderID = count == 3 ? relativePath.getName(0).toString() : null;
+        return new StorageKey(type, folderID, relativePath.getName(count - 1).toString());
+    }
+
+    private StorageType getStorageType(String name) {
+        for (StorageType type : StorageType.values()) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,191 @@
+package com.profclub.storage.fs;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.util.*;
+import com.sun.net.httpserver.*;
+import org.slf4j.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Serves presigned URLs issued by {@link FileSystemStorageProvider}: GET downloads an item
+ * and PUT uploads it, once the signature and expiration time are verified.
+ *
+ * Mount it on the context of the configured presign base URL:
+ * <pre>
+ * HttpServer server = HttpServer.create(new InetSocketAddress(8081), 0);
+ * server.createContext("/storage", new PresignedRequestHandler(fileSystemStorageProvider));
+ * server.start();
+ * </pre>
+ */
+public class PresignedRequestHandler implements HttpHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PresignedRequestHandler.class);
+
+    private static final int OK = 200;
+
+    private static final int CREATED = 201;
+
+    private static final int BAD_REQUEST = 400;
+
+    private static final int FORBIDDEN = 403;
+
+    private static final int NOT_FOUND = 404;
+
+    private static final int METHOD_NOT_ALLOWED = 405;
+
+    private static final int CONFLICT = 409;
+
+    private static final int SERVER_ERROR = 500;
+
+    private final FileSystemStorageProvider provider;
+
+    public PresignedRequestHandler(FileSystemStorageProvider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"PUT".equals(method)) {
+                exchange.sendResponseHeaders(METHOD_NOT_ALLOWED, -1);
+                return;
+            }
+
+            StorageKey key = parseKey(exchange);
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (key == null || !verify(method, key, query)) {
+                exchange.sendResponseHeaders(FORBIDDEN, -1);
+                return;
+            }
+
+            if ("GET".equals(method)) {
+                serve(exchange, key);
+            } else {
+                store(exchange, key);
+            }
+        } catch (Exception e) {
+            LOG.warn("Presigned request {} failed: {}", exchange.getRequestURI(), e.getMessage());
+            if (exchange.getResponseCode() < 0) {
+                exchange.sendResponseHeaders(SERVER_ERROR, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // region <HELPERS>
+
+    private void serve(HttpExchange exchange, StorageKey key) throws IOException {
+        if (!provider.exist(key.getType(), key.getId(), key.getFolderID())) {
+            exchange.sendResponseHeaders(NOT_FOUND, -1);
+            return;
+        }
+        long size = provider.getSize(key.getType(), key.getId(), key.getFolderID());
+        try (InputStream in = provider.read(key.getType(), key.getId(), key.getFolderID())) {
+            exchange.sendResponseHeaders(OK, size == 0 ? -1 : size);
+            try (OutputStream out = exchange.getResponseBody()) {
+                StreamHelper.copy(in, out);
+            }
+        }
+    }
+
+    /**
+     * Receives the body into a staging file, published only once complete, so an interrupted
+     * upload leaves no partial item behind.
+     */
+    private void store(HttpExchange exchange, StorageKey key) throws IOException {
+        if (provider.exist(key.getType(), key.getId(), key.getFolderID())) {
+            exchange.sendResponseHeaders(CONFLICT, -1);
+            return;
+        }
+
+        Path stagingFile = provider.createStagingFile();
+        try {
+            long received;
+            try (InputStream in = exchange.getRequestBody();
+                 OutputStream out = Files.newOutputStream(stagingFile)) {
+                received = StreamHelper.copy(in, out);
+            }
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && Long.parseLong(contentLength.trim()) != received) {
+                LOG.warn("Presigned upload of {} incomplete: {} of {} bytes received", key, received, contentLength);
+                exchange.sendResponseHeaders(BAD_REQUEST, -1);
+                return;
+            }
+
+            provider.publish(stagingFile, key.getType(), key.getId(), key.getFolderID());
+        } catch (StorageItemAlreadyExistsException e) {
+            exchange.sendResponseHeaders(CONFLICT, -1);
+            return;
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(BAD_REQUEST, -1);
+            return;
+        } finally {
+            provider.discard(stagingFile);
+        }
+        exchange.sendResponseHeaders(CREATED, -1);
+    }
+
+    private boolean verify(String method, StorageKey key, Map<String, String> query) {
+        PresignedUrlSigner signer = provider.getPresignedUrlSigner();
+        String expires = query.get(PresignedUrlSigner.EXPIRES_PARAM);
+        if (signer == null || expires == null) {
+            return false;
+        }
+        try {
+            return signer.verify(method, key, Long.parseLong(expires), query.get(PresignedUrlSigner.SIGNATURE_PARAM));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses {@code [folderID/]type/id} relative to the handler context.
+     */
+    private StorageKey parseKey(HttpExchange exchange) throws UnsupportedEncodingException {
+        String path = exchange.getRequestURI().getRawPath();
+        String context = exchange.getHttpContext().getPath();
+        if (path.startsWith(context)) {
+            path = path.substring(context.length());
+        }
+
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, "UTF-8"));
+            }
+        }
+        if (segments.size() < 2 || segments.size() > 3) {
+            return null;
+        }
+
+        int count = segments.size();
+        try {
+            StorageType type = StorageType.valueOf(segments.get(count - 2));
+            return new StorageKey(type, count == 3 ? segments.get(0) : null, segments.get(count - 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                query.put(pair.substring(0, separator), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    // endregion
+}
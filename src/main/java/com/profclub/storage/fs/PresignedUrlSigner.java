@@ -0,0 +1,100 @@
+package com.profclub.storage.fs;
+
+import com.profclub.storage.*;
+import javax.crypto.*;
+import javax.crypto.spec.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.security.*;
+
+/**
+ * Issues and verifies HMAC-SHA256 signed URLs for items of the file system provider.
+ *
+ * URLs have the same layout as the storage directory, {@code base/[folderID/]type/id}, with
+ * {@code expires} (epoch millis) and {@code signature} query parameters. The signature covers the
+ * HTTP method, the item and the expiration time.
+ */
+class PresignedUrlSigner {
+
+    static final String EXPIRES_PARAM = "expires";
+
+    static final String SIGNATURE_PARAM = "signature";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final String baseUrl;
+
+    private final SecretKeySpec secret;
+
+    PresignedUrlSigner(String baseUrl, String secret) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    /**
+     * Creates a signed URL for the method, valid until the expiration time.
+     *
+     * @param method GET or PUT
+     * @param key
+     * @param expires epoch millis
+     * @return
+     */
+    URL sign(String method, StorageKey key, long expires) throws MalformedURLException {
+        StringBuilder url = new StringBuilder(baseUrl);
+        if (key.getFolderID() != null) {
+            url.append('/').append(encode(key.getFolderID()));
+        }
+        url.append('/').append(key.getType().name())
+                .append('/').append(encode(key.getId()))
+                .append('?').append(EXPIRES_PARAM).append('=').append(expires)
+                .append('&').append(SIGNATURE_PARAM).append('=').append(signature(method, key, expires));
+        return new URL(url.toString());
+    }
+
+    /**
+     * Checks that the signature was issued for the request and has not expired.
+     *
+     * @param method
+     * @param key
+     * @param expires
+     * @param signature
+     * @return
+     */
+    boolean verify(String method, StorageKey key, long expires, String signature) {
+        if (signature == null || expires < System.currentTimeMillis()) {
+            return false;
+        }
+        byte[] expected = signature(method, key, expires).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // region <HELPERS>
+
+    private String signature(String method, StorageKey key, long expires) {
+        String payload = method + "\n" + key.getType().name() + "\n" + (key.getFolderID() == null ? "" : key.getFolderID())
+                + "\n" + key.getId() + "\n" + expires;
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String encode(String segment) {
+        try {
+            return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // endregion
+}
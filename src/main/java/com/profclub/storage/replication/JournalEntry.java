@@ -0,0 +1,45 @@
+package com.profclub.storage.replication;
+
+import com.profclub.storage.*;
+
+/**
+ * Replication journal record of a local change that has to be applied to the remote provider.
+ */
+class JournalEntry {
+
+    enum Operation {
+        PUT,
+        DELETE
+    }
+
+    private final long seq;
+
+    private final Operation operation;
+
+    private final StorageKey key;
+
+    private final long timestamp;
+
+    JournalEntry(long seq, Operation operation, StorageKey key, long timestamp) {
+        this.seq = seq;
+        this.operation = operation;
+        this.key = key;
+        this.timestamp = timestamp;
+    }
+
+    long getSeq() {
+        return seq;
+    }
+
+    Operation getOperation() {
+        return operation;
+    }
+
+    StorageKey getKey() {
+        return key;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+}
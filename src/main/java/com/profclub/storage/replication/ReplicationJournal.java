@@ -0,0 +1,209 @@
+package com.profclub.storage.replication;
+
+import com.profclub.storage.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Append-only journal of local changes awaiting replication.
+ *
+ * Every record is a line, forced to disk before the append returns:
+ * <pre>
+ * PUT|DELETE seq timestamp type folderID id
+ * DONE seq...
+ * </pre>
+ * Replaying the journal yields the entries without a DONE record. A torn last line left by a crash
+ * is truncated on open.
+ */
+class ReplicationJournal implements Closeable {
+
+    private static final String DONE = "DONE";
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path path;
+
+    private FileChannel channel;
+
+    private long nextSeq = 1;
+
+    /** Size of the journal after the last compaction */
+    private long compactedSize;
+
+    ReplicationJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the journal for appending and replays it.
+     *
+     * @return pending entries in journal order
+     */
+    synchronized List<JournalEntry> open() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+
+        Map<Long, JournalEntry> pending = new LinkedHashMap<>();
+        int validLength = 0;
+        if (Files.exists(path)) {
+            byte[] content = Files.readAllBytes(path);
+            for (int i = content.length - 1; i >= 0; i--) {
+                if (content[i] == '\n') {
+                    validLength = i + 1;
+                    break;
+                }
+            }
+            String text = new String(content, 0, validLength, StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                if (!line.isEmpty()) {
+                    replay(line, pending);
+                }
+            }
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Appends an entry and forces it to disk.
+     *
+     * @param operation
+     * @param key
+     * @return
+     */
+    synchronized JournalEntry append(JournalEntry.Operation operation, StorageKey key) throws IOException {
+        JournalEntry entry = new JournalEntry(nextSeq++, operation, key, System.currentTimeMillis());
+        write(format(entry));
+        return entry;
+    }
+
+    /**
+     * Records replicated entries with a single forced write.
+     *
+     * @param seqs
+     */
+    synchronized void complete(Collection<Long> seqs) throws IOException {
+        if (seqs.isEmpty()) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(DONE);
+        for (Long seq : seqs) {
+            line.append(SEPARATOR).append(seq);
+        }
+        write(line.append('\n').toString());
+    }
+
+    /**
+     * Rewrites the journal with only the pending entries once it grows over the limit and to twice
+     * its size after the last compaction, so a large backlog is not rewritten on every call.
+     *
+     * @param pending
+     * @param limit
+     * @return true if the journal was rewritten
+     */
+    synchronized boolean compact(Collection<JournalEntry> pending, long limit) throws IOException {
+        if (channel.size() <= Math.max(limit, 2 * compactedSize)) {
+            return false;
+        }
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (JournalEntry entry : pending) {
+                writeFully(out, format(entry));
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        compactedSize = channel.size();
+        channel.position(compactedSize);
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // region <HELPERS>
+
+    private void replay(String line, Map<Long, JournalEntry> pending) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (DONE.equals(fields[0])) {
+            for (int i = 1; i < fields.length; i++) {
+                pending.remove(Long.parseLong(fields[i]));
+            }
+            return;
+        }
+
+        long seq = Long.parseLong(fields[1]);
+        StorageKey key = new StorageKey(StorageType.valueOf(fields[3]), decode(fields[4]), decode(fields[5]));
+        pending.put(seq, new JournalEntry(seq, JournalEntry.Operation.valueOf(fields[0]), key,
+                Long.parseLong(fields[2])));
+        nextSeq = Math.max(nextSeq, seq + 1);
+    }
+
+    private String format(JournalEntry entry) {
+        StorageKey key = entry.getKey();
+        return entry.getOperation().name() + SEPARATOR + entry.getSeq() + SEPARATOR + entry.getTimestamp()
+                + SEPARATOR + key.getType().name() + SEPARATOR + encode(key.getFolderID())
+                + SEPARATOR + encode(key.getId()) + '\n';
+    }
+
+    private void write(String line) throws IOException {
+        writeFully(channel, line);
+        channel.force(false);
+    }
+
+    /**
+     * Forces a rename in the directory to the disk.
+     */
+    private void forceDirectory(Path directory) throws IOException {
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (AccessDeniedException | UnsupportedOperationException e) {
+            // directories cannot be opened on Windows
+        }
+    }
+
+    private void writeFully(FileChannel target, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * A null folder is written as an empty field.
+     */
+    private String encode(String value) {
+        try {
+            return value == null ? "" : URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String decode(String value) {
+        try {
+            return value.isEmpty() ? null : URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // endregion
+}
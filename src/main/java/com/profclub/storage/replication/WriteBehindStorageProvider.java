@@ -0,0 +1,702 @@
+package com.profclub.storage.replication;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.fs.*;
+import com.profclub.storage.util.*;
+import org.slf4j.*;
+import javax.annotation.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Storage provider which acknowledges writes once they are durable on the local file system
+ * and replicates them to a remote provider (S3) in the background.
+ *
+ * Every write and delete is recorded in a {@link ReplicationJournal} before it is applied locally:
+ * writes are staged and published once journaled, so neither a write nor a delete can be lost
+ * between the local change and its journal entry.
+ * The journal drives batched, parallel replication and is replayed after a restart. Items are read
+ * locally while they are pending, so callers never observe the replication lag.
+ */
+public class WriteBehindStorageProvider implements IStorageProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindStorageProvider.class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final FileSystemStorageProvider local;
+
+    private final IStorageProvider remote;
+
+    private final WriteBehindConfiguration configuration;
+
+    private final ReplicationJournal journal;
+
+    /** Entries not yet replicated, in journal order */
+    private final ConcurrentSkipListMap<Long, JournalEntry> pending = new ConcurrentSkipListMap<>();
+
+    /** Pending entries of every item in journal order, guarded by the journal lock */
+    private final Map<StorageKey, List<JournalEntry>> pendingByKey = new HashMap<>();
+
+    /** Items with pending changes ordered by the time they are due for replication, guarded by itself */
+    private final NavigableSet<Due> ready = new TreeSet<>();
+
+    /** Queued due of every item, guarded by the ready queue lock */
+    private final Map<StorageKey, Due> scheduled = new HashMap<>();
+
+    /** Items being replicated, not queued meanwhile, guarded by the ready queue lock */
+    private final Set<StorageKey> replicating = new HashSet<>();
+
+    private long dueOrder;
+
+    /** Latest pending entry of every item */
+    private final ConcurrentMap<StorageKey, JournalEntry> latest = new ConcurrentHashMap<>();
+
+    /** Items which failed to replicate, retried with backoff */
+    private final ConcurrentMap<StorageKey, Failure> failures = new ConcurrentHashMap<>();
+
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+
+    private ExecutorService replicationExecutor;
+
+    private ScheduledExecutorService scheduler;
+
+    public WriteBehindStorageProvider(FileSystemStorageProvider local, IStorageProvider remote,
+                                      WriteBehindConfiguration configuration) {
+        this.local = local;
+        this.remote = remote;
+        this.configuration = configuration;
+        this.journal = new ReplicationJournal(Paths.get(configuration.getJournalPath()));
+    }
+
+    /**
+     * Replays the journal and starts replication.
+     */
+    @PostConstruct
+    public void init() throws StorageException {
+        try {
+            List<JournalEntry> entries = journal.open();
+            journal.complete(settle(entries));
+            synchronized (journal) {
+                for (JournalEntry entry : entries) {
+                    track(entry);
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException("Unable to replay replication journal", e);
+        }
+        LOG.info("Replication journal replayed: {} pending entries", pending.size());
+
+        replicationExecutor = Executors.newFixedThreadPool(configuration.getReplicationThreads(),
+                new NamedThreadFactory("write-behind"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("write-behind-scheduler"));
+        long interval = configuration.getReplicationIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::replicate, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        scheduler.shutdownNow();
+        replicationExecutor.shutdownNow();
+        journal.close();
+    }
+
+    @Override
+    public void upload(StorageType type, String id, String folderID, byte[] content) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        synchronized (locks.get(key)) {
+            checkWritable(key);
+            Path stagingFile = local.createStagingFile();
+            try (OutputStream out = Files.newOutputStream(stagingFile)) {
+                StreamHelper.write(out, content);
+            } catch (IOException e) {
+                local.discard(stagingFile);
+                throw new StorageException(e);
+            }
+            publish(key, stagingFile);
+        }
+    }
+
+    @Override
+    public OutputStream create(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        synchronized (locks.get(key)) {
+            checkWritable(key);
+        }
+        Path stagingFile = local.createStagingFile();
+        OutputStream stagingStream;
+        try {
+            stagingStream = Files.newOutputStream(stagingFile);
+        } catch (IOException e) {
+            local.discard(stagingFile);
+            throw new StorageException(e);
+        }
+        return new FilterOutputStream(stagingStream) {
+
+            private boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } catch (IOException e) {
+                    local.discard(stagingFile);
+                    throw e;
+                }
+                synchronized (locks.get(key)) {
+                    publish(key, stagingFile);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream read(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        JournalEntry entry = latest.get(key);
+        if (entry != null && entry.getOperation() == JournalEntry.Operation.DELETE) {
+            throw new StorageException(key + " does not exist");
+        }
+
+        if (entry != null || local.exist(type, id, folderID)) {
+            try {
+                return local.read(type, id, folderID);
+            } catch (StorageException e) {
+                if (entry != null) {
+                    throw e;
+                }
+                // evicted after replication
+            }
+        }
+        return remote.read(type, id, folderID);
+    }
+
+    /**
+     * Local and remote copies have different ETags, so an item is reported as modified once
+     * when its local copy is evicted.
+     */
+    @Override
+    public ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        JournalEntry entry = latest.get(key);
+        if (entry != null && entry.getOperation() == JournalEntry.Operation.DELETE) {
+            throw new StorageException(key + " does not exist");
+        }
+
+        if (entry != null || local.exist(type, id, folderID)) {
+            try {
+                return local.readIfModified(type, id, folderID, eTag, ifModifiedSince);
+            } catch (StorageException e) {
+                if (entry != null) {
+                    throw e;
+                }
+                // evicted after replication
+            }
+        }
+        return remote.readIfModified(type, id, folderID, eTag, ifModifiedSince);
+    }
+
+    @Override
+    public void delete(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        synchronized (locks.get(key)) {
+            if (!exist(type, id, folderID)) {
+                throw new StorageItemAlreadyExistsException(key + " does not exist");
+            }
+            // journaled first, a local copy left by a crash is deleted on replay
+            record(JournalEntry.Operation.DELETE, key);
+            if (local.exist(type, id, folderID)) {
+                local.delete(type, id, folderID);
+            }
+        }
+    }
+
+    @Override
+    public void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        copy(fromType, fromId, toType, toId, folderID);
+        delete(fromType, fromId, folderID);
+    }
+
+    /**
+     * The content is streamed into a staging file, published as the target once complete.
+     */
+    @Override
+    public void copy(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(toType, folderID, toId);
+        synchronized (locks.get(key)) {
+            checkWritable(key);
+        }
+        Path stagingFile = local.createStagingFile();
+        try (InputStream in = read(fromType, fromId, folderID);
+             OutputStream out = Files.newOutputStream(stagingFile)) {
+            StreamHelper.copy(in, out);
+        } catch (StorageException e) {
+            local.discard(stagingFile);
+            throw e;
+        } catch (IOException e) {
+            local.discard(stagingFile);
+            throw new StorageException(e);
+        }
+        synchronized (locks.get(key)) {
+            publish(key, stagingFile);
+        }
+    }
+
+    @Override
+    public boolean exist(StorageType type, String id, String folderID) throws StorageException {
+        JournalEntry entry = latest.get(new StorageKey(type, folderID, id));
+        if (entry != null) {
+            return entry.getOperation() == JournalEntry.Operation.PUT;
+        }
+        return local.exist(type, id, folderID) || remote.exist(type, id, folderID);
+    }
+
+    @Override
+    public long getSize(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        JournalEntry entry = latest.get(key);
+        if (entry != null && entry.getOperation() == JournalEntry.Operation.DELETE) {
+            throw new StorageItemAlreadyExistsException(key + " does not exist");
+        }
+        if (entry != null || local.exist(type, id, folderID)) {
+            return local.getSize(type, id, folderID);
+        }
+        return remote.getSize(type, id, folderID);
+    }
+
+    @Override
+    public long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        JournalEntry entry = latest.get(new StorageKey(type, folderID, id));
+        if (entry != null) {
+            return entry.getOperation() == JournalEntry.Operation.PUT ? local.getSizeIfExists(type, id, folderID) : -1;
+        }
+        long size = local.getSizeIfExists(type, id, folderID);
+        return size >= 0 ? size : remote.getSizeIfExists(type, id, folderID);
+    }
+
+    @Override
+    public URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        JournalEntry entry = latest.get(new StorageKey(type, folderID, id));
+        if (entry != null && local.supportPresignedUrl()) {
+            return local.getPresignedReadUrl(type, id, folderID, expiresInMillis);
+        }
+        if (entry != null) {
+            throw new StorageException(type.name() + "/" + folderID + "/" + id + " is not replicated yet");
+        }
+        return remote.getPresignedReadUrl(type, id, folderID, expiresInMillis);
+    }
+
+    /**
+     * Direct writes go to the remote provider, so they would race with pending local changes.
+     */
+    @Override
+    public URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        if (latest.containsKey(new StorageKey(type, folderID, id))) {
+            throw new StorageException(type.name() + "/" + folderID + "/" + id + " has pending local changes");
+        }
+        return remote.getPresignedWriteUrl(type, id, folderID, expiresInMillis);
+    }
+
+    /**
+     * The remote provider holds the authoritative copy of every item.
+     */
+    @Override
+    public StorageProviderType getProvider() {
+        return remote.getProvider();
+    }
+
+    @Override
+    public boolean supportOutputStream() {
+        return true;
+    }
+
+    @Override
+    public boolean supportPresignedUrl() {
+        return remote.supportPresignedUrl();
+    }
+
+    /**
+     * Gets the number of journal entries not yet replicated.
+     *
+     * @return
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the age of the oldest change not yet replicated, 0 when replication is caught up.
+     *
+     * @return
+     */
+    public long getReplicationLagMillis() {
+        Map.Entry<Long, JournalEntry> oldest = pending.firstEntry();
+        return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getValue().getTimestamp());
+    }
+
+    /**
+     * Gets the number of items whose replication failed and is awaiting a retry.
+     *
+     * @return
+     */
+    public int getFailingCount() {
+        return failures.size();
+    }
+
+    // region <REPLICATION>
+
+    /**
+     * Replicates pending items in batches until every pending item is replicated or awaiting a retry.
+     */
+    private void replicate() {
+        try {
+            while (!pending.isEmpty()) {
+                if (!replicateBatch()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.error("Replication failed", e);
+        }
+    }
+
+    /**
+     * Applies the latest pending change of up to a batch of items due for replication in parallel.
+     * Items awaiting a retry are queued by their retry time, so failing items do not hold back
+     * the rest of the journal.
+     *
+     * @return false if no item was due for replication
+     */
+    private boolean replicateBatch() throws InterruptedException, IOException {
+        List<JournalEntry> targets = takeDue(System.currentTimeMillis(), configuration.getReplicationBatchSize());
+        if (targets.isEmpty()) {
+            return false;
+        }
+
+        Map<JournalEntry, Future<?>> transfers = new LinkedHashMap<>();
+        for (JournalEntry target : targets) {
+            transfers.put(target, replicationExecutor.submit(() -> {
+                apply(target);
+                return null;
+            }));
+        }
+
+        List<JournalEntry> replicated = new ArrayList<>();
+        try {
+            for (Map.Entry<JournalEntry, Future<?>> transfer : transfers.entrySet()) {
+                StorageKey key = transfer.getKey().getKey();
+                try {
+                    transfer.getValue().get();
+                    replicated.add(transfer.getKey());
+                    failures.remove(key);
+                } catch (ExecutionException e) {
+                    Failure failure = failures.merge(key, new Failure(1, retryAt(1)),
+                            (previous, first) -> new Failure(previous.attempts + 1, retryAt(previous.attempts + 1)));
+                    LOG.warn("Unable to replicate {} (attempt {}): {}", key, failure.attempts, e.getCause().getMessage());
+                }
+            }
+
+            // an item is caught up to its target, older entries are superseded by it
+            synchronized (journal) {
+                List<Long> done = new ArrayList<>();
+                for (JournalEntry target : replicated) {
+                    List<JournalEntry> entries = pendingByKey.get(target.getKey());
+                    while (entries != null && !entries.isEmpty() && entries.get(0).getSeq() <= target.getSeq()) {
+                        done.add(entries.remove(0).getSeq());
+                    }
+                    if (entries != null && entries.isEmpty()) {
+                        pendingByKey.remove(target.getKey());
+                    }
+                }
+                journal.complete(done);
+                for (Long seq : done) {
+                    pending.remove(seq);
+                }
+                journal.compact(pending.values(), configuration.getJournalCompactionBytes());
+            }
+            for (JournalEntry target : replicated) {
+                release(target);
+            }
+        } finally {
+            // items changed or failed meanwhile are queued again
+            for (JournalEntry target : targets) {
+                StorageKey key = target.getKey();
+                synchronized (ready) {
+                    replicating.remove(key);
+                }
+                if (latest.containsKey(key)) {
+                    Failure failure = failures.get(key);
+                    schedule(key, failure == null ? 0 : failure.retryAt);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes up to a batch of items due for replication off the queue.
+     *
+     * @return the latest entry of every item taken
+     */
+    private List<JournalEntry> takeDue(long now, int limit) {
+        List<JournalEntry> targets = new ArrayList<>();
+        synchronized (ready) {
+            while (targets.size() < limit && !ready.isEmpty() && ready.first().dueAt <= now) {
+                Due due = ready.pollFirst();
+                scheduled.remove(due.key);
+                JournalEntry target = latest.get(due.key);
+                // an item whose only write was abandoned has nothing left to replicate
+                if (target != null) {
+                    replicating.add(due.key);
+                    targets.add(target);
+                }
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Queues an item for replication at the given time, unless it is queued earlier or being replicated.
+     */
+    private void schedule(StorageKey key, long dueAt) {
+        synchronized (ready) {
+            if (replicating.contains(key)) {
+                return;
+            }
+            Due previous = scheduled.get(key);
+            if (previous != null) {
+                if (previous.dueAt <= dueAt) {
+                    return;
+                }
+                ready.remove(previous);
+            }
+            Due due = new Due(key, dueAt, dueOrder++);
+            ready.add(due);
+            scheduled.put(key, due);
+        }
+    }
+
+    private long retryAt(int attempts) {
+        long delay = Math.min(configuration.getReplicationRetryMaxDelayMillis(),
+                configuration.getReplicationRetryBaseDelayMillis() << Math.min(attempts - 1, 20));
+        return System.currentTimeMillis() + delay;
+    }
+
+    private void apply(JournalEntry entry) throws IOException {
+        StorageKey key = entry.getKey();
+        if (entry.getOperation() == JournalEntry.Operation.DELETE) {
+            if (remote.exist(key.getType(), key.getId(), key.getFolderID())) {
+                remote.delete(key.getType(), key.getId(), key.getFolderID());
+            }
+            return;
+        }
+
+        try (InputStream in = local.read(key.getType(), key.getId(), key.getFolderID())) {
+            if (remote instanceof IStreamingStorageProvider) {
+                ((IStreamingStorageProvider) remote).upload(key.getType(), key.getId(), key.getFolderID(), in);
+            } else {
+                // only providers without a streaming upload get the item buffered
+                long size = local.getSize(key.getType(), key.getId(), key.getFolderID());
+                remote.upload(key.getType(), key.getId(), key.getFolderID(), StreamHelper.toByteArray(in, size));
+            }
+        }
+    }
+
+    /**
+     * Forgets a replicated item unless it changed meanwhile, evicting its local copy if configured.
+     */
+    private void release(JournalEntry target) {
+        StorageKey key = target.getKey();
+        synchronized (locks.get(key)) {
+            if (!latest.remove(key, target)) {
+                return;
+            }
+            if (configuration.isEvictAfterReplication() && target.getOperation() == JournalEntry.Operation.PUT) {
+                try {
+                    local.delete(key.getType(), key.getId(), key.getFolderID());
+                } catch (StorageException e) {
+                    LOG.warn("Unable to evict replicated {}: {}", key, e.getMessage());
+                }
+            }
+        }
+    }
+
+    // endregion
+
+    // region <HELPERS>
+
+    /**
+     * Journals a change, the caller holds the item lock.
+     */
+    private JournalEntry record(JournalEntry.Operation operation, StorageKey key) throws StorageException {
+        // compaction snapshots the pending entries under the journal lock
+        synchronized (journal) {
+            try {
+                JournalEntry entry = journal.append(operation, key);
+                track(entry);
+                return entry;
+            } catch (IOException e) {
+                throw new StorageException("Unable to write replication journal", e);
+            }
+        }
+    }
+
+    /**
+     * Journals a write, then publishes its staged content as the local item, the caller holds
+     * the item lock. A crash in between leaves an entry without local item, dropped on replay,
+     * for a write which was never acknowledged.
+     */
+    private void publish(StorageKey key, Path stagingFile) throws StorageException {
+        JournalEntry previous = latest.get(key);
+        JournalEntry entry = record(JournalEntry.Operation.PUT, key);
+        try {
+            local.publish(stagingFile, key.getType(), key.getId(), key.getFolderID());
+        } catch (StorageException e) {
+            local.discard(stagingFile);
+            abandon(entry, previous);
+            throw e;
+        }
+    }
+
+    /**
+     * Withdraws the entry of a write which failed after it was journaled.
+     */
+    private void abandon(JournalEntry entry, JournalEntry previous) {
+        synchronized (journal) {
+            pending.remove(entry.getSeq());
+            List<JournalEntry> entries = pendingByKey.get(entry.getKey());
+            if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+                pendingByKey.remove(entry.getKey());
+            }
+            try {
+                journal.complete(Collections.singletonList(entry.getSeq()));
+            } catch (IOException e) {
+                LOG.warn("Unable to withdraw journal entry of {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        if (previous != null) {
+            latest.replace(entry.getKey(), entry, previous);
+        } else {
+            latest.remove(entry.getKey(), entry);
+        }
+    }
+
+    /**
+     * Rejects a write of an existing local item, the caller holds the item lock.
+     */
+    private void checkWritable(StorageKey key) throws StorageException {
+        if (!local.exist(key.getType(), key.getId(), key.getFolderID())) {
+            return;
+        }
+        JournalEntry entry = latest.get(key);
+        if (entry == null || entry.getOperation() != JournalEntry.Operation.DELETE) {
+            throw new StorageItemAlreadyExistsException(key + " Already exists");
+        }
+        // local copy left by a delete which failed after it was journaled
+        local.delete(key.getType(), key.getId(), key.getFolderID());
+    }
+
+    /**
+     * Completes the changes interrupted by a crash, walking the replayed entries from the newest:
+     * the write of an item without local copy was never published and is dropped,
+     * the local copy of a deleted item is removed.
+     *
+     * @param entries replayed entries, the dropped ones are removed
+     * @return sequence numbers of the dropped entries
+     */
+    private List<Long> settle(List<JournalEntry> entries) throws StorageException {
+        List<Long> dropped = new ArrayList<>();
+        Set<StorageKey> settled = new HashSet<>();
+        for (ListIterator<JournalEntry> iterator = entries.listIterator(entries.size()); iterator.hasPrevious();) {
+            JournalEntry entry = iterator.previous();
+            StorageKey key = entry.getKey();
+            if (settled.contains(key)) {
+                continue;
+            }
+            boolean localExists = local.exist(key.getType(), key.getId(), key.getFolderID());
+            if (entry.getOperation() == JournalEntry.Operation.PUT && !localExists) {
+                dropped.add(entry.getSeq());
+                iterator.remove();
+                continue;
+            }
+            if (entry.getOperation() == JournalEntry.Operation.DELETE && localExists) {
+                local.delete(key.getType(), key.getId(), key.getFolderID());
+            }
+            settled.add(key);
+        }
+        if (!dropped.isEmpty()) {
+            LOG.warn("Dropped {} journal entries of writes interrupted before completion", dropped.size());
+        }
+        return dropped;
+    }
+
+    /**
+     * Adds a journaled change to the pending ones, the caller holds the journal lock.
+     */
+    private void track(JournalEntry entry) {
+        pending.put(entry.getSeq(), entry);
+        pendingByKey.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(entry);
+        latest.put(entry.getKey(), entry);
+        // a new change supersedes the one failing to replicate
+        failures.remove(entry.getKey());
+        schedule(entry.getKey(), 0);
+    }
+
+    /**
+     * Replication failures of an item.
+     */
+    private static class Failure {
+
+        final int attempts;
+
+        /** Time before which the item is not retried */
+        final long retryAt;
+
+        Failure(int attempts, long retryAt) {
+            this.attempts = attempts;
+            this.retryAt = retryAt;
+        }
+    }
+
+    /**
+     * Queue position of an item, ordered by due time and then by queueing order.
+     */
+    private static class Due implements Comparable<Due> {
+
+        final StorageKey key;
+
+        final long dueAt;
+
+        final long order;
+
+        Due(StorageKey key, long dueAt, long order) {
+            this.key = key;
+            this.dueAt = dueAt;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Due other) {
+            int result = Long.compare(dueAt, other.dueAt);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,361 @@
+package com.profclub.storage.sync;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.fs.*;
+import com.profclub.storage.util.*;
+import org.slf4j.*;
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Synchronizes the items of a source provider to a target provider, e.g. to seed S3 from
+ * a file system tree or to move a tenant between providers.
+ *
+ * The target is listed into an index of sizes and checksums, then the source is listed in streaming
+ * fashion and every item missing or different on the target is transferred over a bounded pool.
+ * The listings are not merged in order since {@link IListableStorageProvider#walk} guarantees no order
+ * (a file system tree is walked in directory order), so the target index is held in memory: memory use
+ * is proportional to the number of target items, about a hundred bytes each, not to their content.
+ * Content is streamed, to S3 with multipart uploads, so an item is never held whole in memory unless
+ * the target supports neither streaming path. A file system item is replaced through a staging file,
+ * so a failed transfer leaves the outdated item in place.
+ */
+public class StorageSyncEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageSyncEngine.class);
+
+    private static final int PROGRESS_INTERVAL = 10_000;
+
+    /**
+     * Runs a sync.
+     *
+     * @param source
+     * @param target
+     * @param options
+     * @return
+     */
+    public SyncReport sync(IListableStorageProvider source, IListableStorageProvider target, SyncOptions options) throws StorageException {
+        SyncReport report = new SyncReport();
+
+        Map<StorageKey, StorageItem> targetIndex = new HashMap<>();
+        target.walk(item -> targetIndex.put(item.getKey(), item));
+        LOG.info("Sync target listed: {} items", targetIndex.size());
+
+        SyncManifest manifest = openManifest(options);
+        ThroughputLimiter limiter = new ThroughputLimiter(options.getMaxBytesPerSecond());
+        int parallelism = Math.max(1, options.getParallelism());
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory("storage-sync"));
+        // bounds the queued transfers, so the source is listed no faster than it is copied
+        Semaphore slots = new Semaphore(parallelism * 2);
+        boolean completed = false;
+
+        try {
+            source.walk(item -> {
+                StorageKey key = item.getKey();
+                StorageItem targetItem = targetIndex.remove(key);
+                report.onScanned();
+                if (report.getScanned() % PROGRESS_INTERVAL == 0) {
+                    LOG.info("Sync progress: {}", report);
+                }
+
+                if (manifest != null && manifest.isCompleted(key)) {
+                    report.onResumed();
+                    return;
+                }
+                if (targetItem != null && targetItem.getSize() != item.getSize()) {
+                    submit(executor, slots, key, report, () -> transfer(source, target, item, options, limiter, manifest, report));
+                } else if (targetItem != null && !options.isCompareChecksums()) {
+                    report.onUnchanged();
+                } else {
+                    submit(executor, slots, key, report, () -> compareAndTransfer(source, target, item, targetItem, options, limiter, manifest, report));
+                }
+            });
+
+            if (options.isDeleteExtraneous()) {
+                for (StorageItem extraneous : targetIndex.values()) {
+                    submit(executor, slots, extraneous.getKey(), report, () -> deleteExtraneous(target, extraneous.getKey(), options, report));
+                }
+            }
+
+            // every submitted transfer has finished once all slots are back
+            slots.acquire(parallelism * 2);
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Sync interrupted", e);
+        } finally {
+            executor.shutdownNow();
+            closeManifest(manifest, options, report, completed);
+        }
+
+        LOG.info("Sync {}: {}", options.isDryRun() ? "dry run completed" : "completed", report);
+        return report;
+    }
+
+    // region <TRANSFER>
+
+    private void compareAndTransfer(IListableStorageProvider source, IListableStorageProvider target, StorageItem item,
+                                    StorageItem targetItem, SyncOptions options, ThroughputLimiter limiter,
+                                    SyncManifest manifest, SyncReport report) throws Exception {
+        if (targetItem == null) {
+            transfer(source, target, item, options, limiter, manifest, report);
+            return;
+        }
+
+        String sourceChecksum = item.getChecksum() != null ? item.getChecksum() : checksum(source, item.getKey(), limiter);
+        String targetChecksum = targetItem.getChecksum() != null ? targetItem.getChecksum() : checksum(target, item.getKey(), limiter);
+        if (sourceChecksum.equalsIgnoreCase(targetChecksum)) {
+            report.onUnchanged();
+            record(manifest, item.getKey(), options);
+        } else {
+            transfer(source, target, item, options, limiter, manifest, report);
+        }
+    }
+
+    private void transfer(IListableStorageProvider source, IListableStorageProvider target, StorageItem item,
+                          SyncOptions options, ThroughputLimiter limiter,
+                          SyncManifest manifest, SyncReport report) throws Exception {
+        StorageKey key = item.getKey();
+        if (options.isDryRun()) {
+            LOG.debug("Dry run: would transfer {}", item);
+            report.onTransferred(item.getSize());
+            return;
+        }
+
+        long bytes;
+        try (InputStream in = new ThrottledInputStream(source.read(key.getType(), key.getId(), key.getFolderID()), limiter)) {
+            if (target instanceof FileSystemStorageProvider) {
+                bytes = replaceStaged((FileSystemStorageProvider) target, key, in);
+            } else if (target.supportOutputStream()) {
+                try (OutputStream out = createReplacing(target, key)) {
+                    bytes = StreamHelper.copy(in, out);
+                }
+            } else if (target instanceof IStreamingStorageProvider) {
+                // an upload replaces the object whole, a failed one leaves the outdated object in place
+                CountingInputStream counting = new CountingInputStream(in);
+                ((IStreamingStorageProvider) target).upload(key.getType(), key.getId(), key.getFolderID(), counting);
+                bytes = counting.getCount();
+            } else {
+                // only small providers lack both streaming paths, the item is buffered whole
+                byte[] content = StreamHelper.toByteArray(in, item.getSize());
+                try {
+                    target.upload(key.getType(), key.getId(), key.getFolderID(), content);
+                } catch (StorageItemAlreadyExistsException e) {
+                    target.delete(key.getType(), key.getId(), key.getFolderID());
+                    target.upload(key.getType(), key.getId(), key.getFolderID(), content);
+                }
+                bytes = content.length;
+            }
+        }
+        report.onTransferred(bytes);
+        record(manifest, key, options);
+    }
+
+    /**
+     * Copies an item into a staging file and swaps it in place of the outdated one,
+     * so a failed copy leaves the target untouched instead of missing or truncated.
+     */
+    private long replaceStaged(FileSystemStorageProvider target, StorageKey key, InputStream in) throws Exception {
+        Path stagingFile = target.createStagingFile();
+        try {
+            long bytes;
+            try (OutputStream out = Files.newOutputStream(stagingFile)) {
+                bytes = StreamHelper.copy(in, out);
+            }
+            target.replace(stagingFile, key.getType(), key.getId(), key.getFolderID());
+            return bytes;
+        } finally {
+            target.discard(stagingFile);
+        }
+    }
+
+    /**
+     * Opens the target item for writing, deleting the outdated one if the provider refuses to overwrite.
+     */
+    private OutputStream createReplacing(IStorageProvider target, StorageKey key) throws StorageException {
+        try {
+            return target.create(key.getType(), key.getId(), key.getFolderID());
+        } catch (StorageItemAlreadyExistsException e) {
+            target.delete(key.getType(), key.getId(), key.getFolderID());
+            return target.create(key.getType(), key.getId(), key.getFolderID());
+        }
+    }
+
+    private void deleteExtraneous(IListableStorageProvider target, StorageKey key, SyncOptions options, SyncReport report) throws Exception {
+        if (options.isDryRun()) {
+            LOG.debug("Dry run: would delete {}", key);
+        } else {
+            target.delete(key.getType(), key.getId(), key.getFolderID());
+        }
+        report.onDeleted();
+    }
+
+    /**
+     * Computes the MD5 of an item, as S3 reports it for objects not uploaded in parts.
+     */
+    private String checksum(IStorageProvider provider, StorageKey key, ThroughputLimiter limiter) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        BufferPool pool = BufferPool.shared();
+        byte[] buffer = pool.acquire();
+        try (InputStream in = new ThrottledInputStream(provider.read(key.getType(), key.getId(), key.getFolderID()), limiter)) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // endregion
+
+    // region <HELPERS>
+
+    private void submit(ExecutorService executor, Semaphore slots, StorageKey key, SyncReport report, SyncTask task) throws StorageException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Sync interrupted", e);
+        }
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                report.onFailed(key);
+                LOG.warn("Sync of {} failed: {}", key, e.getMessage());
+            } finally {
+                slots.release();
+            }
+        });
+    }
+
+    private SyncManifest openManifest(SyncOptions options) throws StorageException {
+        if (options.getManifestPath() == null || options.isDryRun()) {
+            return null;
+        }
+        SyncManifest manifest = new SyncManifest(Paths.get(options.getManifestPath()));
+        try {
+            manifest.open();
+        } catch (IOException e) {
+            throw new StorageException("Unable to open sync manifest", e);
+        }
+        return manifest;
+    }
+
+    private void record(SyncManifest manifest, StorageKey key, SyncOptions options) throws IOException {
+        if (manifest != null && !options.isDryRun()) {
+            manifest.record(key);
+        }
+    }
+
+    /**
+     * Deletes the manifest of a run which completed without failures, keeps it for resuming otherwise,
+     * e.g. when a listing failed or the run was interrupted.
+     */
+    private void closeManifest(SyncManifest manifest, SyncOptions options, SyncReport report, boolean completed) {
+        if (manifest == null) {
+            return;
+        }
+        try {
+            if (completed && report.getFailed() == 0) {
+                manifest.delete();
+            } else {
+                manifest.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to close sync manifest {}: {}", options.getManifestPath(), e.getMessage());
+        }
+    }
+
+    private interface SyncTask {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * Counts the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Charges every read to the throughput limiter.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+
+        private final ThroughputLimiter limiter;
+
+        ThrottledInputStream(InputStream in, ThroughputLimiter limiter) {
+            super(in);
+            this.limiter = limiter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                throttle(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                throttle(n);
+            }
+            return n;
+        }
+
+        private void throttle(int bytes) throws IOException {
+            try {
+                limiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    // endregion
+}
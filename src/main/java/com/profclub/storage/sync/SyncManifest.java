@@ -0,0 +1,76 @@
+package com.profclub.storage.sync;
+
+import com.profclub.storage.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Append-only record of the items synced by a run, one {@code type folderID id} line per item.
+ * Lines lost in a crash only cause the items to be compared again.
+ */
+class SyncManifest implements Closeable {
+
+    private static final String SEPARATOR = "\t";
+
+    private static final String NULL_FOLDER = "";
+
+    private final Path path;
+
+    private final Set<StorageKey> completed = new HashSet<>();
+
+    private BufferedWriter writer;
+
+    SyncManifest(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads the items recorded by an interrupted run and opens the manifest for appending.
+     */
+    void open() throws IOException {
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(SEPARATOR, -1);
+                    if (fields.length == 3) {
+                        completed.add(new StorageKey(StorageType.valueOf(fields[0]),
+                                NULL_FOLDER.equals(fields[1]) ? null : fields[1], fields[2]));
+                    }
+                }
+            }
+        } else if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    boolean isCompleted(StorageKey key) {
+        return completed.contains(key);
+    }
+
+    synchronized void record(StorageKey key) throws IOException {
+        writer.write(key.getType().name() + SEPARATOR + (key.getFolderID() == null ? NULL_FOLDER : key.getFolderID())
+                + SEPARATOR + key.getId() + "\n");
+        writer.flush();
+    }
+
+    /**
+     * Removes the manifest once a run completed, the next run compares everything again.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
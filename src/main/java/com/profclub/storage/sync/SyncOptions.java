@@ -0,0 +1,93 @@
+package com.profclub.storage.sync;
+
+/**
+ * Options of a {@link StorageSyncEngine} run.
+ */
+public class SyncOptions {
+
+    private boolean dryRun;
+
+    private int parallelism = 8;
+
+    /** 0 means unlimited */
+    private long maxBytesPerSecond;
+
+    private boolean compareChecksums = true;
+
+    private boolean deleteExtraneous;
+
+    private String manifestPath;
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Only reports what would be transferred or deleted.
+     */
+    public SyncOptions withDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of concurrent transfers.
+     */
+    public SyncOptions withParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    /**
+     * Limits the total transfer throughput, 0 for no limit.
+     */
+    public SyncOptions withMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    public boolean isCompareChecksums() {
+        return compareChecksums;
+    }
+
+    /**
+     * Compares MD5 checksums of items of equal size, otherwise size alone decides.
+     */
+    public SyncOptions withCompareChecksums(boolean compareChecksums) {
+        this.compareChecksums = compareChecksums;
+        return this;
+    }
+
+    public boolean isDeleteExtraneous() {
+        return deleteExtraneous;
+    }
+
+    /**
+     * Deletes target items missing from the source.
+     */
+    public SyncOptions withDeleteExtraneous(boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+        return this;
+    }
+
+    public String getManifestPath() {
+        return manifestPath;
+    }
+
+    /**
+     * File recording synced items, an interrupted run started again with the same manifest
+     * skips them. Without a manifest runs are not resumable.
+     */
+    public SyncOptions withManifestPath(String manifestPath) {
+        this.manifestPath = manifestPath;
+        return this;
+    }
+}
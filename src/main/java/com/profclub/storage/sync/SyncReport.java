@@ -0,0 +1,105 @@
+package com.profclub.storage.sync;
+
+import com.profclub.storage.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counters of a {@link StorageSyncEngine} run. In dry-run mode transfers and deletes are
+ * counted without being executed.
+ */
+public class SyncReport {
+
+    private static final int MAX_REPORTED_FAILURES = 1000;
+
+    private final AtomicLong scanned = new AtomicLong();
+
+    private final AtomicLong unchanged = new AtomicLong();
+
+    private final AtomicLong resumed = new AtomicLong();
+
+    private final AtomicLong transferred = new AtomicLong();
+
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    private final AtomicLong deleted = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final Queue<StorageKey> failures = new ConcurrentLinkedQueue<>();
+
+    void onScanned() {
+        scanned.incrementAndGet();
+    }
+
+    void onUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void onResumed() {
+        resumed.incrementAndGet();
+    }
+
+    void onTransferred(long bytes) {
+        transferred.incrementAndGet();
+        transferredBytes.addAndGet(bytes);
+    }
+
+    void onDeleted() {
+        deleted.incrementAndGet();
+    }
+
+    void onFailed(StorageKey key) {
+        if (failed.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+            failures.add(key);
+        }
+    }
+
+    /** Source items seen */
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    /** Items equal on both sides */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /** Items skipped because the manifest records them as synced by an earlier run */
+    public long getResumed() {
+        return resumed.get();
+    }
+
+    public long getTransferred() {
+        return transferred.get();
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the keys of failed items, the first thousand of them.
+     *
+     * @return
+     */
+    public List<StorageKey> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    @Override
+    public String toString() {
+        return "scanned: " + scanned + ", unchanged: " + unchanged + ", resumed: " + resumed
+                + ", transferred: " + transferred + " (" + transferredBytes + " bytes), deleted: " + deleted
+                + ", failed: " + failed;
+    }
+}
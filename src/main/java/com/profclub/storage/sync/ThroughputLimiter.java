@@ -0,0 +1,40 @@
+package com.profclub.storage.sync;
+
+/**
+ * Token bucket limiting the bytes per second shared by all transfers, holding at most one second of burst.
+ */
+class ThroughputLimiter {
+
+    private final long bytesPerSecond;
+
+    private double available;
+
+    private long lastRefill = System.nanoTime();
+
+    ThroughputLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = bytesPerSecond;
+    }
+
+    /**
+     * Blocks until the bytes may be transferred.
+     *
+     * @param bytes
+     */
+    void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(bytesPerSecond, available + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+            available -= bytes;
+            waitNanos = available >= 0 ? 0 : (long) (-available * 1e9 / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+}
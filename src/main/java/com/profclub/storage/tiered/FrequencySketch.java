@@ -0,0 +1,141 @@
+package com.profclub.storage.tiered;
+
+/**
+ * Count-min sketch with 4-bit counters estimating how often items were accessed recently.
+ *
+ * Each long of the table holds sixteen counters, an item is counted in four of them.
+ * Once the number of increments reaches ten times the table size all counters are halved,
+ * so estimates favour recent accesses. The table is split in independently locked segments,
+ * so concurrent reads of different items rarely contend.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Initializes a new instance of the class.
+     *
+     * @param expectedItems
+     */
+    FrequencySketch(int expectedItems) {
+        int perSegment = Math.max(1, Math.min(expectedItems, 1 << 26) / SEGMENTS);
+        int length = Integer.highestOneBit(Math.max(16, perSegment) - 1) << 1;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(length);
+        }
+    }
+
+    /**
+     * Gets the estimated number of recent accesses of an item, at most 15.
+     *
+     * @param item
+     * @return
+     */
+    int frequency(Object item) {
+        int hash = spread(item.hashCode());
+        return segmentOf(hash).frequency(hash);
+    }
+
+    /**
+     * Records an access of an item.
+     *
+     * @param item
+     */
+    void increment(Object item) {
+        int hash = spread(item.hashCode());
+        segmentOf(hash).increment(hash);
+    }
+
+    // region <HELPERS>
+
+    /**
+     * The segment is chosen by the high bits, the counters by the low bits and the row hashes.
+     */
+    private Segment segmentOf(int hash) {
+        return segments[hash >>> 28];
+    }
+
+    private int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    /**
+     * Independently locked part of the table.
+     */
+    private static class Segment {
+
+        private final long[] table;
+
+        private final int tableMask;
+
+        private final int sampleSize;
+
+        private int size;
+
+        Segment(int length) {
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = 10 * length;
+        }
+
+        synchronized int frequency(int hash) {
+            int start = (hash & 3) << 2;
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        synchronized void increment(int hash) {
+            int start = (hash & 3) << 2;
+
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = size >>> 1;
+        }
+
+        private int indexOf(int item, int row) {
+            long hash = (item + SEEDS[row]) * SEEDS[row];
+            hash += hash >>> 32;
+            return ((int) hash) & tableMask;
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,721 @@
+package com.profclub.storage.tiered;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.fs.*;
+import com.profclub.storage.util.*;
+import org.slf4j.*;
+import javax.annotation.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Storage provider routing between a hot tier on local disk and a cold tier (S3).
+ *
+ * Access frequency of every item is tracked in a {@link FrequencySketch}. Frequently read cold
+ * items are promoted (copied) to the hot tier, and when the hot tier exceeds its capacity budget
+ * the least frequently used items are demoted in the background. New items are written through:
+ * to the cold tier first, then to the hot tier while it has room, so losing the local disk loses
+ * no item. Items found on the hot tier at startup are written to the cold tier by the next
+ * migration cycle.
+ *
+ * The cold tier is expected to overwrite existing items on upload, as S3 does.
+ */
+public class TieredStorageProvider implements IStorageProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TieredStorageProvider.class);
+
+    /** Demotion frees the hot tier down to this share of its capacity */
+    private static final double LOW_WATERMARK = 0.9;
+
+    private static final int MAX_CANDIDATES = 1024;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final FileSystemStorageProvider hot;
+
+    private final IStorageProvider cold;
+
+    private final TieredStorageConfiguration configuration;
+
+    private final FrequencySketch sketch;
+
+    /** Items present in the hot tier */
+    private final ConcurrentMap<StorageKey, Resident> residents = new ConcurrentHashMap<>();
+
+    private final AtomicLong hotBytes = new AtomicLong();
+
+    /** Promotions in progress, a write or delete of the item cancels its promotion */
+    private final ConcurrentMap<StorageKey, Object> promoting = new ConcurrentHashMap<>();
+
+    /** Items worth promoting which did not fit the hot tier, admitted by the migration cycle */
+    private final Set<StorageKey> candidates = ConcurrentHashMap.newKeySet();
+
+    /** Items being written to the cold tier without holding their lock, writes of them wait for it on their lock */
+    private final Set<StorageKey> coldWrites = ConcurrentHashMap.newKeySet();
+
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+
+    private ThreadPoolExecutor migrationExecutor;
+
+    private ScheduledExecutorService scheduler;
+
+    public TieredStorageProvider(FileSystemStorageProvider hot, IStorageProvider cold,
+                                 TieredStorageConfiguration configuration) {
+        this.hot = hot;
+        this.cold = cold;
+        this.configuration = configuration;
+        this.sketch = new FrequencySketch(configuration.getExpectedItemCount());
+    }
+
+    /**
+     * Rebuilds the hot tier index and starts the migration cycle.
+     *
+     * Items found on disk are treated as not yet written to the cold tier.
+     */
+    @PostConstruct
+    public void init() throws StorageException {
+        hot.walk(item -> {
+            residents.put(item.getKey(), new Resident(item.getSize(), true));
+            hotBytes.addAndGet(item.getSize());
+        });
+        LOG.info("Hot tier index rebuilt: {} items, {} bytes", residents.size(), hotBytes.get());
+
+        int threads = configuration.getMigrationThreads();
+        migrationExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_CANDIDATES), new NamedThreadFactory("tier-migration"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("tier-scheduler"));
+        long interval = configuration.getMigrationIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::migrate, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        migrationExecutor.shutdownNow();
+    }
+
+    @Override
+    public void upload(StorageType type, String id, String folderID, byte[] content) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        Object lock = beginColdWrite(key);
+        boolean written = false;
+        try {
+            cold.upload(type, id, folderID, content);
+            written = true;
+        } finally {
+            synchronized (lock) {
+                endColdWrite(lock, key);
+                if (written && hotBytes.get() + content.length <= configuration.getHotCapacityBytes()) {
+                    cacheHot(key, content);
+                }
+            }
+        }
+    }
+
+    /**
+     * The content is staged on the hot tier and written through once the stream is closed.
+     */
+    @Override
+    public OutputStream create(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        checkNotResident(key);
+        Path stagingFile = hot.createStagingFile();
+        OutputStream stagingStream;
+        try {
+            stagingStream = Files.newOutputStream(stagingFile);
+        } catch (IOException e) {
+            hot.discard(stagingFile);
+            throw new StorageException(e);
+        }
+        return new FilterOutputStream(stagingStream) {
+
+            private long written;
+
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                written += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                    Object lock = beginColdWrite(key);
+                    boolean coldWritten = false;
+                    try (InputStream in = Files.newInputStream(stagingFile)) {
+                        writeCold(key, in, written);
+                        coldWritten = true;
+                    } finally {
+                        synchronized (lock) {
+                            endColdWrite(lock, key);
+                            if (coldWritten && hotBytes.get() + written <= configuration.getHotCapacityBytes()) {
+                                publishHot(key, stagingFile, written);
+                            }
+                        }
+                    }
+                } finally {
+                    hot.discard(stagingFile);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream read(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        sketch.increment(key);
+
+        Resident resident = residents.get(key);
+        if (resident != null) {
+            try {
+                return hot.read(type, id, folderID);
+            } catch (StorageException e) {
+                if (isOnlyHot(key)) {
+                    throw e;
+                }
+                LOG.warn("Hot copy of {} unreadable, reading cold tier: {}", key, e.getMessage());
+            }
+        } else if (sketch.frequency(key) >= configuration.getPromotionThreshold()) {
+            schedulePromotion(key);
+        }
+        return cold.read(type, id, folderID);
+    }
+
+    /**
+     * Each tier computes its own ETag, so an item moving between tiers is reported as modified once.
+     */
+    @Override
+    public ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        sketch.increment(key);
+
+        Resident resident = residents.get(key);
+        if (resident != null) {
+            try {
+                return hot.readIfModified(type, id, folderID, eTag, ifModifiedSince);
+            } catch (StorageException e) {
+                if (isOnlyHot(key)) {
+                    throw e;
+                }
+                LOG.warn("Hot copy of {} unreadable, reading cold tier: {}", key, e.getMessage());
+            }
+        } else if (sketch.frequency(key) >= configuration.getPromotionThreshold()) {
+            schedulePromotion(key);
+        }
+        return cold.readIfModified(type, id, folderID, eTag, ifModifiedSince);
+    }
+
+    @Override
+    public void delete(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        Object lock = locks.get(key);
+        synchronized (lock) {
+            awaitColdWrite(lock, key);
+            promoting.remove(key);
+            Resident resident = residents.get(key);
+            if (resident == null) {
+                cold.delete(type, id, folderID);
+                return;
+            }
+            hot.delete(type, id, folderID);
+            removeResident(key);
+            deleteColdCopy(key, resident);
+        }
+    }
+
+    @Override
+    public void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        StorageKey from = new StorageKey(fromType, folderID, fromId);
+        StorageKey to = new StorageKey(toType, folderID, toId);
+        while (true) {
+            awaitColdWrite(from, to);
+            synchronized (locks.first(from, to)) {
+                synchronized (locks.second(from, to)) {
+                    if (coldWrites.contains(from) || coldWrites.contains(to)) {
+                        // written to the cold tier meanwhile
+                        continue;
+                    }
+                    promoting.remove(from);
+                    promoting.remove(to);
+                    Resident resident = residents.get(from);
+                    replaceHotTarget(to);
+                    if (resident == null) {
+                        cold.move(fromType, fromId, toType, toId, folderID);
+                        return;
+                    }
+                    if (resident.dirty) {
+                        hot.move(fromType, fromId, toType, toId, folderID);
+                        removeResident(from);
+                        addResident(to, resident.size, true);
+                        deleteColdCopy(from, resident);
+                        return;
+                    }
+                    cold.move(fromType, fromId, toType, toId, folderID);
+                    hot.move(fromType, fromId, toType, toId, folderID);
+                    removeResident(from);
+                    addResident(to, resident.size, false);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void copy(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        StorageKey from = new StorageKey(fromType, folderID, fromId);
+        StorageKey to = new StorageKey(toType, folderID, toId);
+        while (true) {
+            awaitColdWrite(from, to);
+            synchronized (locks.first(from, to)) {
+                synchronized (locks.second(from, to)) {
+                    if (coldWrites.contains(from) || coldWrites.contains(to)) {
+                        // written to the cold tier meanwhile
+                        continue;
+                    }
+                    promoting.remove(to);
+                    Resident resident = residents.get(from);
+                    replaceHotTarget(to);
+                    if (resident == null) {
+                        cold.copy(fromType, fromId, toType, toId, folderID);
+                        return;
+                    }
+                    if (!resident.dirty) {
+                        cold.copy(fromType, fromId, toType, toId, folderID);
+                    }
+                    hot.copy(fromType, fromId, toType, toId, folderID);
+                    addResident(to, resident.size, resident.dirty);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean exist(StorageType type, String id, String folderID) throws StorageException {
+        return residents.containsKey(new StorageKey(type, folderID, id)) || cold.exist(type, id, folderID);
+    }
+
+    @Override
+    public long getSize(StorageType type, String id, String folderID) throws StorageException {
+        Resident resident = residents.get(new StorageKey(type, folderID, id));
+        return resident != null ? resident.size : cold.getSize(type, id, folderID);
+    }
+
+    @Override
+    public long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        Resident resident = residents.get(new StorageKey(type, folderID, id));
+        return resident != null ? resident.size : cold.getSizeIfExists(type, id, folderID);
+    }
+
+    @Override
+    public URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        sketch.increment(key);
+        Resident resident = residents.get(key);
+        if (resident != null && hot.supportPresignedUrl()) {
+            return hot.getPresignedReadUrl(type, id, folderID, expiresInMillis);
+        }
+        if (resident != null && resident.dirty) {
+            throw new StorageException(key + " is not written to the cold tier yet");
+        }
+        return cold.getPresignedReadUrl(type, id, folderID, expiresInMillis);
+    }
+
+    /**
+     * Direct writes go to the cold tier, where they are visible without updating the hot tier index.
+     */
+    @Override
+    public URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        if (residents.containsKey(new StorageKey(type, folderID, id))) {
+            throw new StorageItemAlreadyExistsException(type.name() + "/" + folderID + "/" + id + " Already exists");
+        }
+        return cold.getPresignedWriteUrl(type, id, folderID, expiresInMillis);
+    }
+
+    /**
+     * The cold tier holds the authoritative copy of every item written through this provider.
+     */
+    @Override
+    public StorageProviderType getProvider() {
+        return cold.getProvider();
+    }
+
+    @Override
+    public boolean supportOutputStream() {
+        return true;
+    }
+
+    @Override
+    public boolean supportPresignedUrl() {
+        return cold.supportPresignedUrl();
+    }
+
+    /**
+     * Gets the number of bytes currently held by the hot tier.
+     *
+     * @return
+     */
+    public long getHotBytes() {
+        return hotBytes.get();
+    }
+
+    // region <MIGRATION>
+
+    private void schedulePromotion(StorageKey key) {
+        Object token = new Object();
+        if (promoting.putIfAbsent(key, token) != null) {
+            return;
+        }
+        try {
+            migrationExecutor.execute(() -> promote(key, token));
+        } catch (RejectedExecutionException e) {
+            promoting.remove(key, token);
+        }
+    }
+
+    /**
+     * Copies a cold item to the hot tier if it still fits, otherwise leaves it to the admission cycle.
+     */
+    private void promote(StorageKey key, Object token) {
+        try {
+            byte[] content = readCold(key);
+            if (content == null) {
+                return;
+            }
+            synchronized (locks.get(key)) {
+                if (promoting.get(key) != token || residents.containsKey(key) || coldWrites.contains(key)) {
+                    return;
+                }
+                if (hotBytes.get() + content.length > configuration.getHotCapacityBytes()) {
+                    if (candidates.size() < MAX_CANDIDATES) {
+                        candidates.add(key);
+                    }
+                    return;
+                }
+                cacheHot(key, content);
+                LOG.debug("Promoted {} to hot tier", key);
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to promote {}: {}", key, e.getMessage());
+        } finally {
+            promoting.remove(key, token);
+        }
+    }
+
+    /**
+     * Writes dirty items to the cold tier, demotes items until the hot tier is under its budget,
+     * then admits promotion candidates which are accessed more often than the residents they would displace.
+     */
+    private void migrate() {
+        try {
+            // items found on the hot tier at startup
+            for (Map.Entry<StorageKey, Resident> resident : residents.entrySet()) {
+                if (resident.getValue().dirty) {
+                    writeBack(resident.getKey());
+                }
+            }
+
+            long capacity = configuration.getHotCapacityBytes();
+            List<StorageKey> coldest = residentsByFrequency();
+
+            Iterator<StorageKey> victims = coldest.iterator();
+            if (hotBytes.get() > capacity) {
+                long target = (long) (capacity * LOW_WATERMARK);
+                while (hotBytes.get() > target && victims.hasNext()) {
+                    demote(victims.next());
+                }
+            }
+
+            List<StorageKey> admissions = new ArrayList<>(candidates);
+            candidates.clear();
+            admissions.sort(Comparator.comparingInt(sketch::frequency).reversed());
+            for (StorageKey candidate : admissions) {
+                if (residents.containsKey(candidate)) {
+                    continue;
+                }
+                int frequency = sketch.frequency(candidate);
+                while (hotBytes.get() >= capacity * LOW_WATERMARK && victims.hasNext()) {
+                    StorageKey victim = victims.next();
+                    if (sketch.frequency(victim) >= frequency) {
+                        break;
+                    }
+                    demote(victim);
+                }
+                if (hotBytes.get() < capacity * LOW_WATERMARK) {
+                    schedulePromotion(candidate);
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Tier migration failed", e);
+        }
+    }
+
+    /**
+     * Moves an item out of the hot tier, writing it to the cold tier first if it is only held locally.
+     */
+    private void demote(StorageKey key) {
+        Resident resident = writeBack(key);
+        if (resident == null) {
+            return;
+        }
+        synchronized (locks.get(key)) {
+            if (residents.get(key) != resident) {
+                return;
+            }
+            try {
+                hot.delete(key.getType(), key.getId(), key.getFolderID());
+                removeResident(key);
+                LOG.debug("Demoted {} to cold tier", key);
+            } catch (Exception e) {
+                LOG.warn("Unable to demote {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a dirty item to the cold tier. The item is streamed without holding its lock,
+     * writes of the item wait for it.
+     *
+     * @return the clean hot tier entry, or null if the item is not resident or could not be written
+     */
+    private Resident writeBack(StorageKey key) {
+        Object lock = locks.get(key);
+        Resident resident;
+        synchronized (lock) {
+            resident = residents.get(key);
+            if (resident == null || !resident.dirty) {
+                return resident;
+            }
+            coldWrites.add(key);
+        }
+
+        boolean written = false;
+        try (InputStream in = hot.read(key.getType(), key.getId(), key.getFolderID())) {
+            writeCold(key, in, resident.size);
+            written = true;
+        } catch (Exception e) {
+            LOG.warn("Unable to write {} to the cold tier: {}", key, e.getMessage());
+        }
+
+        synchronized (lock) {
+            endColdWrite(lock, key);
+            // writes of the item waited, so only a promotion could have changed it, and it skips residents
+            if (!written || residents.get(key) != resident) {
+                return null;
+            }
+            Resident clean = new Resident(resident.size, false);
+            residents.put(key, clean);
+            return clean;
+        }
+    }
+
+    /**
+     * Writes an item to the cold tier, streamed if the cold tier supports it.
+     */
+    private void writeCold(StorageKey key, InputStream in, long size) throws IOException {
+        if (cold instanceof IStreamingStorageProvider) {
+            ((IStreamingStorageProvider) cold).upload(key.getType(), key.getId(), key.getFolderID(), in);
+        } else {
+            cold.upload(key.getType(), key.getId(), key.getFolderID(), StreamHelper.toByteArray(in, size));
+        }
+    }
+
+    private List<StorageKey> residentsByFrequency() {
+        Map<StorageKey, Integer> frequencies = new HashMap<>();
+        for (StorageKey key : residents.keySet()) {
+            frequencies.put(key, sketch.frequency(key));
+        }
+        List<StorageKey> keys = new ArrayList<>(frequencies.keySet());
+        keys.sort(Comparator.comparingInt(frequencies::get));
+        return keys;
+    }
+
+    /**
+     * Reads a cold item, or returns null if it exceeds the promotion size limit.
+     */
+    private byte[] readCold(StorageKey key) throws IOException {
+        long limit = configuration.getMaxPromotedItemBytes();
+        try (InputStream in = cold.read(key.getType(), key.getId(), key.getFolderID())) {
+            return StreamHelper.toByteArray(in, -1, limit);
+        }
+    }
+
+    // endregion
+
+    // region <HELPERS>
+
+    /**
+     * Removes the cold copy of a hot item. A dirty item may still have an outdated cold copy.
+     */
+    private void deleteColdCopy(StorageKey key, Resident resident) throws StorageException {
+        if (!resident.dirty || cold.exist(key.getType(), key.getId(), key.getFolderID())) {
+            cold.delete(key.getType(), key.getId(), key.getFolderID());
+        }
+    }
+
+    /**
+     * Removes the hot copy of the target of a move or copy, which the hot tier does not overwrite
+     * and which a cold move or copy would leave outdated.
+     */
+    private void replaceHotTarget(StorageKey to) throws StorageException {
+        if (residents.containsKey(to)) {
+            hot.delete(to.getType(), to.getId(), to.getFolderID());
+            removeResident(to);
+        }
+    }
+
+    /**
+     * Marks an item as being written to the cold tier, once no other write of it is in progress.
+     * Items held by the hot tier are rejected, since the hot tier does not overwrite.
+     *
+     * @return the item lock
+     */
+    private Object beginColdWrite(StorageKey key) throws StorageException {
+        Object lock = locks.get(key);
+        synchronized (lock) {
+            awaitColdWrite(lock, key);
+            promoting.remove(key);
+            checkNotResident(key);
+            coldWrites.add(key);
+        }
+        return lock;
+    }
+
+    /**
+     * Ends a write to the cold tier and wakes the writes waiting for it, the caller holds the item lock.
+     */
+    private void endColdWrite(Object lock, StorageKey key) {
+        coldWrites.remove(key);
+        lock.notifyAll();
+    }
+
+    private void checkNotResident(StorageKey key) throws StorageItemAlreadyExistsException {
+        if (residents.containsKey(key)) {
+            throw new StorageItemAlreadyExistsException(key + " Already exists");
+        }
+    }
+
+    /**
+     * Writes the hot copy of an item held by the cold tier, the caller holds the item lock.
+     */
+    private void cacheHot(StorageKey key, byte[] content) {
+        Path stagingFile;
+        try {
+            stagingFile = hot.createStagingFile();
+        } catch (StorageException e) {
+            LOG.warn("Unable to write hot copy of {}: {}", key, e.getMessage());
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(stagingFile)) {
+            StreamHelper.write(out, content);
+        } catch (IOException e) {
+            hot.discard(stagingFile);
+            LOG.warn("Unable to write hot copy of {}: {}", key, e.getMessage());
+            return;
+        }
+        publishHot(key, stagingFile, content.length);
+    }
+
+    /**
+     * Publishes a staged copy as the hot copy of an item held by the cold tier, the caller holds
+     * the item lock. A failure only leaves the item out of the hot tier.
+     */
+    private void publishHot(StorageKey key, Path stagingFile, long size) {
+        try {
+            if (hot.exist(key.getType(), key.getId(), key.getFolderID())) {
+                // leftover of an interrupted migration
+                hot.delete(key.getType(), key.getId(), key.getFolderID());
+            }
+            hot.publish(stagingFile, key.getType(), key.getId(), key.getFolderID());
+            addResident(key, size, false);
+        } catch (StorageException e) {
+            hot.discard(stagingFile);
+            LOG.warn("Unable to write hot copy of {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Waits until an item is no longer being written to the cold tier, the caller holds the item lock.
+     * Waiting releases the lock, so other items of the stripe are not held up.
+     */
+    private void awaitColdWrite(Object lock, StorageKey key) throws StorageException {
+        while (coldWrites.contains(key)) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException(e);
+            }
+        }
+    }
+
+    /**
+     * Waits until neither item of a move or copy is being written to the cold tier, without holding a lock.
+     */
+    private void awaitColdWrite(StorageKey from, StorageKey to) throws StorageException {
+        for (StorageKey key : Arrays.asList(from, to)) {
+            Object lock = locks.get(key);
+            synchronized (lock) {
+                awaitColdWrite(lock, key);
+            }
+        }
+    }
+
+    /**
+     * Checks, after a failed hot read, whether the cold tier has no copy of the item. Reads are not
+     * locked, so a dirty item may have been demoted to the cold tier meanwhile.
+     */
+    private boolean isOnlyHot(StorageKey key) {
+        Resident current = residents.get(key);
+        return current != null && current.dirty;
+    }
+
+    private void addResident(StorageKey key, long size, boolean dirty) {
+        Resident previous = residents.put(key, new Resident(size, dirty));
+        hotBytes.addAndGet(previous == null ? size : size - previous.size);
+    }
+
+    private void removeResident(StorageKey key) {
+        Resident previous = residents.remove(key);
+        if (previous != null) {
+            hotBytes.addAndGet(-previous.size);
+        }
+    }
+
+    /**
+     * Hot tier entry.
+     */
+    private static class Resident {
+
+        final long size;
+
+        /** Set when the cold tier has no copy of the item yet */
+        final boolean dirty;
+
+        Resident(long size, boolean dirty) {
+            this.size = size;
+            this.dirty = dirty;
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,263 @@
+package com.profclub.storage.upload;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.util.*;
+import org.slf4j.*;
+import javax.annotation.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Resumable upload session handling shared by the providers.
+ *
+ * A client begins a session with a fixed chunk size, appends chunks in any order (again after a
+ * failure, asking {@link #getSession} which chunks are missing) and commits. Every received chunk
+ * is recorded in a persisted checkpoint, so sessions survive restarts. Sessions idle for longer than
+ * the configured timeout are aborted in the background. An {@link IUploadInterceptor} may reject
+ * sessions and wraps every commit.
+ */
+public abstract class AbstractResumableUploadService implements IResumableUploadService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractResumableUploadService.class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ResumableUploadConfiguration configuration;
+
+    private final UploadCheckpointStore checkpointStore;
+
+    private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+
+    /** Appends of a session share its lock, commit and abort take it exclusively */
+    private final ConcurrentMap<String, ReadWriteLock> sessionLocks = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile IUploadInterceptor interceptor;
+
+    protected AbstractResumableUploadService(ResumableUploadConfiguration configuration) {
+        this.configuration = configuration;
+        this.checkpointStore = new UploadCheckpointStore(Paths.get(configuration.getCheckpointPath()));
+    }
+
+    /**
+     * Restores persisted sessions and starts the cleanup of stale ones.
+     */
+    @PostConstruct
+    public void init() throws StorageException {
+        for (UploadSession session : checkpointStore.loadAll()) {
+            sessionLocks.put(session.getSessionId(), new ReentrantReadWriteLock());
+            sessions.put(session.getSessionId(), session);
+        }
+        LOG.info("Restored {} resumable upload sessions", sessions.size());
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("upload-cleanup"));
+        long interval = configuration.getCleanupIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::cleanup, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Sets the interceptor of the sessions begun and committed from now on.
+     *
+     * @param interceptor
+     */
+    public void setInterceptor(IUploadInterceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    @Override
+    public UploadSession begin(StorageType type, String id, String folderID, long chunkSize) throws StorageException {
+        validateChunkSize(chunkSize);
+        IUploadInterceptor interceptor = this.interceptor;
+        if (interceptor != null) {
+            interceptor.beforeBegin(new StorageKey(type, folderID, id));
+        }
+
+        long now = System.currentTimeMillis();
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), new StorageKey(type, folderID, id),
+                chunkSize, null, now, now, new TreeMap<>(), new HashMap<>());
+        session = session.withHandle(startUpload(session));
+
+        checkpointStore.save(session);
+        sessionLocks.put(session.getSessionId(), new ReentrantReadWriteLock());
+        sessions.put(session.getSessionId(), session);
+        LOG.debug("Upload session {} started for {}", session.getSessionId(), session.getKey());
+        return session;
+    }
+
+    /**
+     * Stores a chunk. Chunks of a session may be appended concurrently, a chunk already
+     * received is not written again. A commit or abort waits for the appends in progress.
+     */
+    @Override
+    public UploadSession append(String sessionId, int chunkIndex, byte[] content) throws StorageException {
+        Lock lock = getSessionLock(sessionId).readLock();
+        lock.lock();
+        try {
+            UploadSession session = getSession(sessionId);
+            if (chunkIndex < 0 || chunkIndex >= getMaxChunks()) {
+                throw new StorageException("Invalid chunk index " + chunkIndex);
+            }
+            if (content.length > session.getChunkSize()) {
+                throw new StorageException("Chunk " + chunkIndex + " exceeds chunk size " + session.getChunkSize());
+            }
+            if (session.hasChunk(chunkIndex)) {
+                return session;
+            }
+            IUploadInterceptor interceptor = this.interceptor;
+            if (interceptor != null) {
+                interceptor.beforeAppend(session.getKey(), session.getBytesReceived() + content.length);
+            }
+
+            String tag = writeChunk(session, chunkIndex, content);
+
+            synchronized (locks.get(sessionId)) {
+                UploadSession current = getSession(sessionId);
+                UploadSession updated = current.withChunk(chunkIndex, content.length, tag, System.currentTimeMillis());
+                checkpointStore.save(updated);
+                sessions.put(sessionId, updated);
+                return updated;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public UploadSession getSession(String sessionId) throws StorageException {
+        UploadSession session = sessions.get(sessionId);
+        if (session == null) {
+            throw new StorageException("Upload session " + sessionId + " does not exist");
+        }
+        return session;
+    }
+
+    /**
+     * Completes the upload once chunks 0..n are received and all but the last one are full.
+     */
+    @Override
+    public void commit(String sessionId) throws StorageException {
+        Lock lock = getSessionLock(sessionId).writeLock();
+        lock.lock();
+        try {
+            UploadSession session = getSession(sessionId);
+            int count = session.getReceivedChunks().size();
+            for (int index = 0; index < count; index++) {
+                if (!session.hasChunk(index)) {
+                    throw new StorageException("Upload session " + sessionId + " is missing chunk " + index);
+                }
+                if (index < count - 1 && session.getChunkLength(index) != session.getChunkSize()) {
+                    throw new StorageException("Upload session " + sessionId + " has incomplete chunk " + index);
+                }
+            }
+
+            IUploadInterceptor interceptor = this.interceptor;
+            if (interceptor != null) {
+                interceptor.commit(session.getKey(), session.getBytesReceived(), () -> completeUpload(session));
+            } else {
+                completeUpload(session);
+            }
+            remove(session);
+            LOG.debug("Upload session {} committed: {} bytes", sessionId, session.getBytesReceived());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void abort(String sessionId) throws StorageException {
+        Lock lock = getSessionLock(sessionId).writeLock();
+        lock.lock();
+        try {
+            UploadSession session = getSession(sessionId);
+            abortUpload(session);
+            remove(session);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // region <PROVIDER HOOKS>
+
+    /**
+     * Checks the chunk size against the provider limits.
+     */
+    protected abstract void validateChunkSize(long chunkSize) throws StorageException;
+
+    /**
+     * Gets the maximum number of chunks of a session.
+     */
+    protected abstract int getMaxChunks();
+
+    /**
+     * Prepares the upload.
+     *
+     * @return the provider upload handle stored in the session
+     */
+    protected abstract String startUpload(UploadSession session) throws StorageException;
+
+    /**
+     * Durably writes a chunk.
+     *
+     * @return tag of the chunk needed to complete the upload, may be null
+     */
+    protected abstract String writeChunk(UploadSession session, int chunkIndex, byte[] content) throws StorageException;
+
+    /**
+     * Assembles the received chunks into the target item.
+     */
+    protected abstract void completeUpload(UploadSession session) throws StorageException;
+
+    /**
+     * Discards the received chunks.
+     */
+    protected abstract void abortUpload(UploadSession session) throws StorageException;
+
+    // endregion
+
+    // region <HELPERS>
+
+    /**
+     * Removes a session, the caller holds its lock exclusively.
+     */
+    private void remove(UploadSession session) throws StorageException {
+        sessions.remove(session.getSessionId());
+        sessionLocks.remove(session.getSessionId());
+        checkpointStore.delete(session.getSessionId());
+    }
+
+    private ReadWriteLock getSessionLock(String sessionId) throws StorageException {
+        ReadWriteLock lock = sessionLocks.get(sessionId);
+        if (lock == null) {
+            throw new StorageException("Upload session " + sessionId + " does not exist");
+        }
+        return lock;
+    }
+
+    private void cleanup() {
+        long expiredBefore = System.currentTimeMillis() - configuration.getSessionTimeoutMillis();
+        for (UploadSession session : sessions.values()) {
+            if (session.getUpdatedAt() < expiredBefore) {
+                try {
+                    abort(session.getSessionId());
+                    LOG.info("Stale upload session {} for {} aborted", session.getSessionId(), session.getKey());
+                } catch (Exception e) {
+                    LOG.warn("Unable to abort stale upload session {}: {}", session.getSessionId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    // endregion
+}
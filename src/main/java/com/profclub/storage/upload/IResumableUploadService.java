@@ -0,0 +1,17 @@
+package com.profclub.storage.upload;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+
+public interface IResumableUploadService {
+
+    UploadSession begin(StorageType type, String id, String folderID, long chunkSize) throws StorageException;
+
+    UploadSession append(String sessionId, int chunkIndex, byte[] content) throws StorageException;
+
+    UploadSession getSession(String sessionId) throws StorageException;
+
+    void commit(String sessionId) throws StorageException;
+
+    void abort(String sessionId) throws StorageException;
+}
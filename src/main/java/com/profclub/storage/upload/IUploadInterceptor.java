@@ -0,0 +1,44 @@
+package com.profclub.storage.upload;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+
+/**
+ * Hook into the resumable uploads, e.g. to apply quotas and usage accounting to items
+ * which are committed by the upload service instead of through a storage provider.
+ */
+public interface IUploadInterceptor {
+
+    /**
+     * Called before a session is started, may reject the upload.
+     *
+     * @param key
+     */
+    void beforeBegin(StorageKey key) throws StorageException;
+
+    /**
+     * Called before a chunk is stored, may reject it.
+     *
+     * @param key
+     * @param size bytes received by the session including the chunk
+     */
+    default void beforeAppend(StorageKey key, long size) throws StorageException {
+    }
+
+    /**
+     * Completes the upload of an item, the interceptor runs the given commit itself.
+     *
+     * @param key
+     * @param size size of the committed item
+     * @param commit
+     */
+    void commit(StorageKey key, long size, Commit commit) throws StorageException;
+
+    /**
+     * Assembles the received chunks into the target item.
+     */
+    interface Commit {
+
+        void complete() throws StorageException;
+    }
+}
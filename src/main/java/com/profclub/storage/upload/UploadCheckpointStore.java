@@ -0,0 +1,130 @@
+package com.profclub.storage.upload;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Persists upload sessions as one properties file per session, replaced atomically on every update.
+ */
+class UploadCheckpointStore {
+
+    private static final String EXTENSION = ".properties";
+
+    private static final String CHUNK_PREFIX = "chunk.";
+
+    private final Path directory;
+
+    UploadCheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads all persisted sessions, unreadable checkpoints are skipped.
+     *
+     * @return
+     */
+    List<UploadSession> loadAll() throws StorageException {
+        List<UploadSession> sessions = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+                for (Path file : files) {
+                    try {
+                        sessions.add(read(file));
+                    } catch (IOException | RuntimeException e) {
+                        // torn checkpoint of a session which never completed its first save
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return sessions;
+    }
+
+    void save(UploadSession session) throws StorageException {
+        Properties properties = new Properties();
+        StorageKey key = session.getKey();
+        properties.setProperty("type", key.getType().name());
+        if (key.getFolderID() != null) {
+            properties.setProperty("folderID", key.getFolderID());
+        }
+        properties.setProperty("id", key.getId());
+        properties.setProperty("chunkSize", Long.toString(session.getChunkSize()));
+        properties.setProperty("createdAt", Long.toString(session.getCreatedAt()));
+        properties.setProperty("updatedAt", Long.toString(session.getUpdatedAt()));
+        if (session.getUploadHandle() != null) {
+            properties.setProperty("uploadHandle", session.getUploadHandle());
+        }
+        for (Integer index : session.getReceivedChunks()) {
+            String tag = session.getChunkTag(index);
+            properties.setProperty(CHUNK_PREFIX + index,
+                    session.getChunkLength(index) + (tag == null ? "" : "," + tag));
+        }
+
+        Path file = getFile(session.getSessionId());
+        Path temp = directory.resolve(session.getSessionId() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+                properties.store(writer, null);
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException("Unable to save upload checkpoint " + session.getSessionId(), e);
+        }
+    }
+
+    void delete(String sessionId) throws StorageException {
+        try {
+            Files.deleteIfExists(getFile(sessionId));
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    // region <HELPERS>
+
+    private UploadSession read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        String fileName = file.getFileName().toString();
+        String sessionId = fileName.substring(0, fileName.length() - EXTENSION.length());
+        StorageKey key = new StorageKey(StorageType.valueOf(properties.getProperty("type")),
+                properties.getProperty("folderID"), properties.getProperty("id"));
+
+        SortedMap<Integer, Long> chunkSizes = new TreeMap<>();
+        Map<Integer, String> chunkTags = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(CHUNK_PREFIX)) {
+                int index = Integer.parseInt(name.substring(CHUNK_PREFIX.length()));
+                String[] value = properties.getProperty(name).split(",", 2);
+                chunkSizes.put(index, Long.parseLong(value[0]));
+                if (value.length > 1) {
+                    chunkTags.put(index, value[1]);
+                }
+            }
+        }
+
+        return new UploadSession(sessionId, key, Long.parseLong(properties.getProperty("chunkSize")),
+                properties.getProperty("uploadHandle"), Long.parseLong(properties.getProperty("createdAt")),
+                Long.parseLong(properties.getProperty("updatedAt")), chunkSizes, chunkTags);
+    }
+
+    private Path getFile(String sessionId) {
+        return directory.resolve(sessionId + EXTENSION);
+    }
+
+    // endregion
+}
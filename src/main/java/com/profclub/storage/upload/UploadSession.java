@@ -0,0 +1,109 @@
+package com.profclub.storage.upload;
+
+import com.profclub.storage.*;
+import java.util.*;
+
+/**
+ * State of a resumable upload: the target item, the chunks received so far and
+ * the provider specific upload handle. Instances are immutable snapshots.
+ */
+public final class UploadSession {
+
+    private final String sessionId;
+
+    private final StorageKey key;
+
+    private final long chunkSize;
+
+    /** S3 multipart upload id, or the staging file of the file system provider */
+    private final String uploadHandle;
+
+    private final long createdAt;
+
+    private final long updatedAt;
+
+    private final SortedMap<Integer, Long> chunkSizes;
+
+    /** Provider tags of received chunks (S3 part ETags) */
+    private final Map<Integer, String> chunkTags;
+
+    UploadSession(String sessionId, StorageKey key, long chunkSize, String uploadHandle, long createdAt,
+                  long updatedAt, SortedMap<Integer, Long> chunkSizes, Map<Integer, String> chunkTags) {
+        this.sessionId = sessionId;
+        this.key = key;
+        this.chunkSize = chunkSize;
+        this.uploadHandle = uploadHandle;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.chunkSizes = Collections.unmodifiableSortedMap(new TreeMap<>(chunkSizes));
+        this.chunkTags = Collections.unmodifiableMap(new HashMap<>(chunkTags));
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public StorageKey getKey() {
+        return key;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public String getUploadHandle() {
+        return uploadHandle;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Gets indexes of the received chunks in ascending order.
+     *
+     * @return
+     */
+    public Set<Integer> getReceivedChunks() {
+        return chunkSizes.keySet();
+    }
+
+    public boolean hasChunk(int chunkIndex) {
+        return chunkSizes.containsKey(chunkIndex);
+    }
+
+    public long getChunkLength(int chunkIndex) {
+        Long size = chunkSizes.get(chunkIndex);
+        return size == null ? 0 : size;
+    }
+
+    public String getChunkTag(int chunkIndex) {
+        return chunkTags.get(chunkIndex);
+    }
+
+    public long getBytesReceived() {
+        long total = 0;
+        for (Long size : chunkSizes.values()) {
+            total += size;
+        }
+        return total;
+    }
+
+    UploadSession withHandle(String handle) {
+        return new UploadSession(sessionId, key, chunkSize, handle, createdAt, updatedAt, chunkSizes, chunkTags);
+    }
+
+    UploadSession withChunk(int chunkIndex, long size, String tag, long now) {
+        SortedMap<Integer, Long> sizes = new TreeMap<>(chunkSizes);
+        sizes.put(chunkIndex, size);
+        Map<Integer, String> tags = new HashMap<>(chunkTags);
+        if (tag != null) {
+            tags.put(chunkIndex, tag);
+        }
+        return new UploadSession(sessionId, key, chunkSize, uploadHandle, createdAt, now, sizes, tags);
+    }
+}
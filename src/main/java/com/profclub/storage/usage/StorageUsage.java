@@ -0,0 +1,39 @@
+package com.profclub.storage.usage;
+
+/**
+ * Bytes and number of items stored by a folder.
+ */
+public final class StorageUsage {
+
+    public static final StorageUsage EMPTY = new StorageUsage(0, 0);
+
+    private final long bytes;
+
+    private final long objects;
+
+    public StorageUsage(long bytes, long objects) {
+        this.bytes = bytes;
+        this.objects = objects;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getObjects() {
+        return objects;
+    }
+
+    /**
+     * @param other
+     * @return
+     */
+    public StorageUsage plus(StorageUsage other) {
+        return new StorageUsage(bytes + other.bytes, objects + other.objects);
+    }
+
+    @Override
+    public String toString() {
+        return "bytes=" + bytes + ", objects=" + objects;
+    }
+}
@@ -0,0 +1,149 @@
+package com.profclub.storage.usage;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Usage counters updated incrementally by every write, delete, move and copy.
+ *
+ * Every counter has a version incremented by each update, so a reconcile only replaces
+ * the counters not updated while the stored items were scanned.
+ */
+class UsageCounters {
+
+    private final ConcurrentMap<UsageKey, Counter> counters = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    StorageUsage get(UsageKey key) {
+        Counter counter = counters.get(key);
+        return counter == null ? StorageUsage.EMPTY : counter.get();
+    }
+
+    /**
+     * @param key
+     * @param bytes delta of stored bytes
+     * @param objects delta of stored items
+     */
+    void add(UsageKey key, long bytes, long objects) {
+        if (bytes == 0 && objects == 0) {
+            return;
+        }
+        counters.computeIfAbsent(key, k -> new Counter()).add(bytes, objects);
+        dirty.set(true);
+    }
+
+    /**
+     * Gets all counters if any changed since the previous call.
+     *
+     * @return null if no counter changed
+     */
+    Map<UsageKey, StorageUsage> snapshotIfDirty() {
+        if (!dirty.getAndSet(false)) {
+            return null;
+        }
+        return snapshot();
+    }
+
+    /**
+     * Gets all counters.
+     *
+     * @return
+     */
+    Map<UsageKey, StorageUsage> snapshot() {
+        Map<UsageKey, StorageUsage> snapshot = new HashMap<>();
+        for (Map.Entry<UsageKey, Counter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Keeps the counters for the next snapshot, after a failed save.
+     */
+    void markDirty() {
+        dirty.set(true);
+    }
+
+    void restore(Map<UsageKey, StorageUsage> snapshot) {
+        for (Map.Entry<UsageKey, StorageUsage> entry : snapshot.entrySet()) {
+            StorageUsage usage = entry.getValue();
+            counters.computeIfAbsent(entry.getKey(), k -> new Counter()).add(usage.getBytes(), usage.getObjects());
+        }
+    }
+
+    /**
+     * Gets the versions of the counters, taken before a scan.
+     *
+     * @return
+     */
+    Map<UsageKey, Long> versions() {
+        Map<UsageKey, Long> versions = new HashMap<>();
+        for (Map.Entry<UsageKey, Counter> entry : counters.entrySet()) {
+            versions.put(entry.getKey(), entry.getValue().getVersion());
+        }
+        return versions;
+    }
+
+    /**
+     * Replaces the counters with the scanned usage, unless they were updated during the scan.
+     *
+     * @param scanned usage found by the scan
+     * @param versions versions of the counters before the scan
+     * @return number of counters corrected
+     */
+    int reconcile(Map<UsageKey, StorageUsage> scanned, Map<UsageKey, Long> versions) {
+        Set<UsageKey> keys = new HashSet<>(counters.keySet());
+        keys.addAll(scanned.keySet());
+
+        int corrected = 0;
+        for (UsageKey key : keys) {
+            Counter counter = counters.computeIfAbsent(key, k -> new Counter());
+            long version = versions.getOrDefault(key, 0L);
+            if (counter.resetIf(version, scanned.getOrDefault(key, StorageUsage.EMPTY))) {
+                corrected++;
+            }
+        }
+        if (corrected > 0) {
+            dirty.set(true);
+        }
+        return corrected;
+    }
+
+    private static class Counter {
+
+        private long bytes;
+
+        private long objects;
+
+        private long version;
+
+        synchronized void add(long bytes, long objects) {
+            this.bytes += bytes;
+            this.objects += objects;
+            version++;
+        }
+
+        synchronized StorageUsage get() {
+            return new StorageUsage(bytes, objects);
+        }
+
+        synchronized long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return true if the counter was replaced by a different usage
+         */
+        synchronized boolean resetIf(long expectedVersion, StorageUsage usage) {
+            if (version != expectedVersion || (bytes == usage.getBytes() && objects == usage.getObjects())) {
+                return false;
+            }
+            bytes = usage.getBytes();
+            objects = usage.getObjects();
+            version++;
+            return true;
+        }
+    }
+}
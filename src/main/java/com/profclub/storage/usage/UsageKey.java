@@ -0,0 +1,49 @@
+package com.profclub.storage.usage;
+
+import com.profclub.storage.*;
+import java.util.*;
+
+/**
+ * Identifies the usage counter of a folder and storage type.
+ */
+final class UsageKey {
+
+    private final String folderID;
+
+    private final StorageType type;
+
+    UsageKey(String folderID, StorageType type) {
+        this.folderID = folderID;
+        this.type = Objects.requireNonNull(type, "type");
+    }
+
+    String getFolderID() {
+        return folderID;
+    }
+
+    StorageType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UsageKey)) {
+            return false;
+        }
+        UsageKey that = (UsageKey) o;
+        return type == that.type && Objects.equals(folderID, that.folderID);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(folderID, type);
+    }
+
+    @Override
+    public String toString() {
+        return folderID + "/" + type.name();
+    }
+}
@@ -0,0 +1,118 @@
+package com.profclub.storage.usage;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Persists usage counters as a properties file replaced atomically on every save:
+ * <pre>
+ * clean=true|false
+ * type/folderID=bytes,objects
+ * </pre>
+ * A null folder is written as an empty folderID. A snapshot is clean only when saved at shutdown,
+ * the snapshots saved while running miss the writes done after them.
+ */
+class UsageSnapshotStore {
+
+    private static final String SEPARATOR = "/";
+
+    private static final String CLEAN = "clean";
+
+    private final Path path;
+
+    UsageSnapshotStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads the snapshot.
+     *
+     * @return null if no snapshot was saved yet
+     */
+    Snapshot load() throws StorageException {
+        if (Files.notExists(path)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new StorageException("Unable to load usage snapshot " + path, e);
+        }
+
+        Map<UsageKey, StorageUsage> usage = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (CLEAN.equals(name)) {
+                continue;
+            }
+            String[] key = name.split(SEPARATOR, 2);
+            String[] value = properties.getProperty(name).split(",", 2);
+            usage.put(new UsageKey(key[1].isEmpty() ? null : key[1], StorageType.valueOf(key[0])),
+                    new StorageUsage(Long.parseLong(value[0]), Long.parseLong(value[1])));
+        }
+        // snapshots saved before the flag existed are not trusted either
+        return new Snapshot(usage, Boolean.parseBoolean(properties.getProperty(CLEAN)));
+    }
+
+    /**
+     * Saves the counters.
+     *
+     * @param snapshot
+     * @param clean true only at shutdown, once no more writes are counted
+     */
+    synchronized void save(Map<UsageKey, StorageUsage> snapshot, boolean clean) throws StorageException {
+        Properties properties = new Properties();
+        properties.setProperty(CLEAN, Boolean.toString(clean));
+        for (Map.Entry<UsageKey, StorageUsage> entry : snapshot.entrySet()) {
+            UsageKey key = entry.getKey();
+            StorageUsage usage = entry.getValue();
+            properties.setProperty(key.getType().name() + SEPARATOR + (key.getFolderID() == null ? "" : key.getFolderID()),
+                    usage.getBytes() + "," + usage.getObjects());
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+                properties.store(writer, null);
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException("Unable to save usage snapshot " + path, e);
+        }
+    }
+
+    static class Snapshot {
+
+        private final Map<UsageKey, StorageUsage> usage;
+
+        private final boolean clean;
+
+        Snapshot(Map<UsageKey, StorageUsage> usage, boolean clean) {
+            this.usage = usage;
+            this.clean = clean;
+        }
+
+        Map<UsageKey, StorageUsage> getUsage() {
+            return usage;
+        }
+
+        /**
+         * @return false if the provider did not shut down cleanly after saving it
+         */
+        boolean isClean() {
+            return clean;
+        }
+    }
+}
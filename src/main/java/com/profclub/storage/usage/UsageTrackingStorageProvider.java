@@ -0,0 +1,461 @@
+package com.profclub.storage.usage;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.upload.*;
+import com.profclub.storage.util.*;
+import org.slf4j.*;
+import javax.annotation.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Storage provider decorator which keeps the usage of every folder and storage type,
+ * so usage and quota checks are answered without listing the stored items.
+ *
+ * Every write, delete, move and copy updates the counters by the size difference it causes.
+ * Counters are persisted in a snapshot at a fixed interval and reconciled in the background
+ * with a scan of the delegate, which corrects the drift left by writes bypassing this provider.
+ * The snapshot is marked clean only at shutdown: without a snapshot, or after a crash left an
+ * unclean one, the counters are rebuilt by a scan right after startup.
+ *
+ * Quotas are checked against the counters before a write, and streamed writes are checked again
+ * as their bytes arrive, failing once the quota is used up. Concurrent writes of a folder
+ * may exceed its quota by the size of the writes in flight.
+ *
+ * Resumable uploads commit around the provider; set this provider as the interceptor of the
+ * upload service to check their quota at begin and commit and to count them.
+ */
+public class UsageTrackingStorageProvider implements IListableStorageProvider, IStreamingStorageProvider, IUploadInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UsageTrackingStorageProvider.class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final IListableStorageProvider delegate;
+
+    private final UsageConfiguration configuration;
+
+    private final UsageCounters counters = new UsageCounters();
+
+    private final UsageSnapshotStore snapshotStore;
+
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+
+    private ScheduledExecutorService scheduler;
+
+    public UsageTrackingStorageProvider(IListableStorageProvider delegate, UsageConfiguration configuration) {
+        this.delegate = delegate;
+        this.configuration = configuration;
+        this.snapshotStore = new UsageSnapshotStore(Paths.get(configuration.getSnapshotPath()));
+    }
+
+    /**
+     * Restores the snapshot and starts the snapshot and reconcile cycles.
+     */
+    @PostConstruct
+    public void init() throws StorageException {
+        UsageSnapshotStore.Snapshot snapshot = snapshotStore.load();
+        boolean clean = snapshot != null && snapshot.isClean();
+        if (snapshot != null) {
+            counters.restore(snapshot.getUsage());
+            LOG.info("Usage snapshot restored: {} counters{}", snapshot.getUsage().size(), clean ? "" : ", unclean shutdown");
+            // a crash from now on leaves an unclean snapshot behind
+            snapshotStore.save(counters.snapshot(), false);
+        }
+
+        scheduler = Executors.newScheduledThreadPool(2, new NamedThreadFactory("usage"));
+        long snapshotInterval = configuration.getSnapshotIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::saveSnapshot, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+        long reconcileInterval = configuration.getReconcileIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::reconcileQuietly, clean ? reconcileInterval : 0,
+                reconcileInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        try {
+            snapshotStore.save(counters.snapshot(), true);
+        } catch (StorageException e) {
+            LOG.warn("Unable to save usage snapshot: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the usage of a folder for a storage type.
+     *
+     * @param folderID
+     * @param type
+     * @return
+     */
+    public StorageUsage getUsage(String folderID, StorageType type) {
+        return counters.get(new UsageKey(folderID, type));
+    }
+
+    /**
+     * Gets the usage of a folder over all storage types.
+     *
+     * @param folderID
+     * @return
+     */
+    public StorageUsage getUsage(String folderID) {
+        StorageUsage usage = StorageUsage.EMPTY;
+        for (StorageType type : StorageType.values()) {
+            usage = usage.plus(getUsage(folderID, type));
+        }
+        return usage;
+    }
+
+    /**
+     * Scans the delegate and corrects the counters which drifted from the stored items.
+     */
+    public void reconcile() throws StorageException {
+        long start = System.currentTimeMillis();
+        Map<UsageKey, Long> versions = counters.versions();
+        Map<UsageKey, StorageUsage> scanned = new HashMap<>();
+        delegate.walk(item -> {
+            StorageKey key = item.getKey();
+            scanned.merge(new UsageKey(key.getFolderID(), key.getType()), new StorageUsage(item.getSize(), 1), StorageUsage::plus);
+        });
+        int corrected = counters.reconcile(scanned, versions);
+        LOG.info("Usage reconciled in {} ms: {} counters scanned, {} corrected",
+                System.currentTimeMillis() - start, scanned.size(), corrected);
+    }
+
+    @Override
+    public void upload(StorageType type, String id, String folderID, byte[] content) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        UsageKey usageKey = new UsageKey(folderID, type);
+        synchronized (locks.get(key)) {
+            long previous = getSizeIfExists(key);
+            long delta = content.length - Math.max(previous, 0);
+            checkQuota(usageKey, delta);
+            delegate.upload(type, id, folderID, content);
+            counters.add(usageKey, delta, previous < 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Streams to the delegate when it supports streaming, otherwise the content is buffered whole.
+     * The quota is checked as the bytes are read, a write going over it fails and stores nothing.
+     */
+    @Override
+    public void upload(StorageType type, String id, String folderID, InputStream content) throws StorageException {
+        if (!(delegate instanceof IStreamingStorageProvider)) {
+            try {
+                upload(type, id, folderID, StreamHelper.toByteArray(content));
+            } catch (StorageException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new StorageException(e);
+            }
+            return;
+        }
+
+        StorageKey key = new StorageKey(type, folderID, id);
+        UsageKey usageKey = new UsageKey(folderID, type);
+        checkQuota(usageKey, 1);
+        long previous = getSizeIfExists(key);
+        QuotaInputStream in = new QuotaInputStream(content, usageKey, previous);
+        ((IStreamingStorageProvider) delegate).upload(type, id, folderID, in);
+        synchronized (locks.get(key)) {
+            counters.add(usageKey, in.bytesRead - Math.max(previous, 0), previous < 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * The written bytes are counted when the stream is closed. The quota is checked as the bytes
+     * are written, a write going over it fails and the partial item is deleted on close.
+     */
+    @Override
+    public OutputStream create(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        UsageKey usageKey = new UsageKey(folderID, type);
+        checkQuota(usageKey, 1);
+        long previous = getSizeIfExists(key);
+        return new FilterOutputStream(delegate.create(type, id, folderID)) {
+
+            private long written;
+
+            private boolean exceeded;
+
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                checkWrite(1);
+                out.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                checkWrite(len);
+                out.write(b, off, len);
+                written += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                synchronized (locks.get(key)) {
+                    super.close();
+                    if (!exceeded) {
+                        counters.add(usageKey, written - Math.max(previous, 0), previous < 0 ? 1 : 0);
+                        return;
+                    }
+                    delegate.delete(type, id, folderID);
+                    if (previous >= 0) {
+                        counters.add(usageKey, -previous, -1);
+                    }
+                }
+            }
+
+            private void checkWrite(int len) throws StorageQuotaExceededException {
+                if (exceeded) {
+                    throw new StorageQuotaExceededException("Quota of " + usageKey + " exceeded, " + key + " not written");
+                }
+                try {
+                    checkQuota(usageKey, written + len - Math.max(previous, 0));
+                } catch (StorageQuotaExceededException e) {
+                    exceeded = true;
+                    throw e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream read(StorageType type, String id, String folderID) throws StorageException {
+        return delegate.read(type, id, folderID);
+    }
+
+    @Override
+    public ConditionalReadResult readIfModified(StorageType type, String id, String folderID, String eTag, long ifModifiedSince) throws StorageException {
+        return delegate.readIfModified(type, id, folderID, eTag, ifModifiedSince);
+    }
+
+    @Override
+    public void delete(StorageType type, String id, String folderID) throws StorageException {
+        StorageKey key = new StorageKey(type, folderID, id);
+        synchronized (locks.get(key)) {
+            long previous = getSizeIfExists(key);
+            delegate.delete(type, id, folderID);
+            if (previous >= 0) {
+                counters.add(new UsageKey(folderID, type), -previous, -1);
+            }
+        }
+    }
+
+    @Override
+    public void move(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        transfer(fromType, fromId, toType, toId, folderID, true);
+    }
+
+    @Override
+    public void copy(StorageType fromType, String fromId, StorageType toType, String toId, String folderID) throws StorageException {
+        transfer(fromType, fromId, toType, toId, folderID, false);
+    }
+
+    @Override
+    public boolean exist(StorageType type, String id, String folderID) throws StorageException {
+        return delegate.exist(type, id, folderID);
+    }
+
+    @Override
+    public long getSize(StorageType type, String id, String folderID) throws StorageException {
+        return delegate.getSize(type, id, folderID);
+    }
+
+    @Override
+    public long getSizeIfExists(StorageType type, String id, String folderID) throws StorageException {
+        return delegate.getSizeIfExists(type, id, folderID);
+    }
+
+    @Override
+    public URL getPresignedReadUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        return delegate.getPresignedReadUrl(type, id, folderID, expiresInMillis);
+    }
+
+    /**
+     * Only checks that the folder has quota left: the size of an upload through a presigned URL
+     * cannot be bounded, it bypasses the counters and the quota until the next reconcile.
+     */
+    @Override
+    public URL getPresignedWriteUrl(StorageType type, String id, String folderID, long expiresInMillis) throws StorageException {
+        checkQuota(new UsageKey(folderID, type), 1);
+        return delegate.getPresignedWriteUrl(type, id, folderID, expiresInMillis);
+    }
+
+    @Override
+    public void beforeBegin(StorageKey key) throws StorageException {
+        checkQuota(new UsageKey(key.getFolderID(), key.getType()), 1);
+    }
+
+    /**
+     * Fails a chunk taking the received bytes over the quota, instead of only failing the commit.
+     */
+    @Override
+    public void beforeAppend(StorageKey key, long size) throws StorageException {
+        long previous = getSizeIfExists(key);
+        checkQuota(new UsageKey(key.getFolderID(), key.getType()), size - Math.max(previous, 0));
+    }
+
+    @Override
+    public void commit(StorageKey key, long size, Commit commit) throws StorageException {
+        UsageKey usageKey = new UsageKey(key.getFolderID(), key.getType());
+        synchronized (locks.get(key)) {
+            long previous = getSizeIfExists(key);
+            long delta = size - Math.max(previous, 0);
+            checkQuota(usageKey, delta);
+            commit.complete();
+            counters.add(usageKey, delta, previous < 0 ? 1 : 0);
+        }
+    }
+
+    @Override
+    public void walk(StorageItemVisitor visitor) throws StorageException {
+        delegate.walk(visitor);
+    }
+
+    @Override
+    public StorageProviderType getProvider() {
+        return delegate.getProvider();
+    }
+
+    @Override
+    public boolean supportOutputStream() {
+        return delegate.supportOutputStream();
+    }
+
+    @Override
+    public boolean supportPresignedUrl() {
+        return delegate.supportPresignedUrl();
+    }
+
+    // region <HELPERS>
+
+    private void transfer(StorageType fromType, String fromId, StorageType toType, String toId, String folderID,
+                          boolean move) throws StorageException {
+        StorageKey from = new StorageKey(fromType, folderID, fromId);
+        StorageKey to = new StorageKey(toType, folderID, toId);
+        UsageKey fromUsage = new UsageKey(folderID, fromType);
+        UsageKey toUsage = new UsageKey(folderID, toType);
+        synchronized (locks.first(from, to)) {
+            synchronized (locks.second(from, to)) {
+                long size = delegate.getSize(fromType, fromId, folderID);
+                long previous = getSizeIfExists(to);
+                long delta = size - Math.max(previous, 0);
+                if (!move || !fromUsage.equals(toUsage)) {
+                    checkQuota(toUsage, delta);
+                }
+
+                if (move) {
+                    delegate.move(fromType, fromId, toType, toId, folderID);
+                    counters.add(fromUsage, -size, -1);
+                } else {
+                    delegate.copy(fromType, fromId, toType, toId, folderID);
+                }
+                counters.add(toUsage, delta, previous < 0 ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * @return -1 if the item does not exist
+     */
+    private long getSizeIfExists(StorageKey key) throws StorageException {
+        return delegate.getSizeIfExists(key.getType(), key.getId(), key.getFolderID());
+    }
+
+    private void checkQuota(UsageKey key, long delta) throws StorageQuotaExceededException {
+        if (delta <= 0) {
+            return;
+        }
+        long quota = configuration.getQuotaBytes(key.getFolderID(), key.getType());
+        long used = counters.get(key).getBytes();
+        if (used + delta > quota) {
+            throw new StorageQuotaExceededException(String.format("Quota of %s exceeded: %d of %d bytes used, %d requested",
+                    key, used, quota, delta));
+        }
+    }
+
+    private void saveSnapshot() {
+        Map<UsageKey, StorageUsage> snapshot = counters.snapshotIfDirty();
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            snapshotStore.save(snapshot, false);
+        } catch (StorageException e) {
+            counters.markDirty();
+            LOG.warn("Unable to save usage snapshot: {}", e.getMessage());
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            LOG.warn("Usage reconcile failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Counts the bytes read and fails once they go over the quota.
+     */
+    private class QuotaInputStream extends FilterInputStream {
+
+        private final UsageKey usageKey;
+
+        private final long previous;
+
+        private long bytesRead;
+
+        QuotaInputStream(InputStream in, UsageKey usageKey, long previous) {
+            super(in);
+            this.usageKey = usageKey;
+            this.previous = previous;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws StorageQuotaExceededException {
+            bytesRead += n;
+            checkQuota(usageKey, bytesRead - Math.max(previous, 0));
+        }
+    }
+
+    // endregion
+}
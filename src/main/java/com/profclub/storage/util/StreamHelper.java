@@ -0,0 +1,178 @@
+package com.profclub.storage.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Stream copy helpers working through the shared {@link BufferPool}.
+ */
+public final class StreamHelper {
+
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private StreamHelper() {
+    }
+
+    /**
+     * Copies the stream to the output using a pooled buffer.
+     *
+     * @param in
+     * @param out
+     * @return number of bytes copied
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        byte[] buffer = pool.acquire();
+        try {
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the content in buffer sized chunks, so that channel backed streams
+     * never need a temporary direct buffer as large as the content.
+     *
+     * @param out
+     * @param content
+     */
+    public static void write(OutputStream out, byte[] content) throws IOException {
+        int chunk = BufferPool.shared().getBufferSize();
+        for (int offset = 0; offset < content.length; offset += chunk) {
+            out.write(content, offset, Math.min(chunk, content.length - offset));
+        }
+    }
+
+    /**
+     * Reads the whole stream.
+     *
+     * @param in
+     * @return
+     */
+    public static byte[] toByteArray(InputStream in) throws IOException {
+        return toByteArray(in, -1);
+    }
+
+    /**
+     * Reads the whole stream into an array sized from the expected length, if known.
+     *
+     * @param in
+     * @param expectedLength content length announced by the provider, negative if unknown
+     * @return
+     */
+    public static byte[] toByteArray(InputStream in, long expectedLength) throws IOException {
+        byte[] content = toByteArray(in, expectedLength, MAX_ARRAY_LENGTH);
+        if (content == null) {
+            throw new IOException("Content exceeds maximum array length");
+        }
+        return content;
+    }
+
+    /**
+     * Reads the whole stream unless it is longer than the limit.
+     *
+     * @param in
+     * @param expectedLength content length announced by the provider, negative if unknown
+     * @param maxLength
+     * @return the content, or null if the stream is longer than maxLength
+     */
+    public static byte[] toByteArray(InputStream in, long expectedLength, long maxLength) throws IOException {
+        if (expectedLength < 0 || expectedLength > Math.min(maxLength, MAX_ARRAY_LENGTH)) {
+            return readChunked(in, new byte[0], maxLength);
+        }
+
+        byte[] content = new byte[(int) expectedLength];
+        int length = 0;
+        int n;
+        while (length < content.length && (n = in.read(content, length, content.length - length)) >= 0) {
+            length += n;
+        }
+        if (length < content.length) {
+            return Arrays.copyOf(content, length);
+        }
+
+        int next = in.read();
+        if (next < 0) {
+            return content;
+        }
+        // the stream is longer than announced
+        byte[] head = Arrays.copyOf(content, content.length + 1);
+        head[content.length] = (byte) next;
+        return readChunked(in, head, maxLength);
+    }
+
+    /**
+     * Reads the stream up to a limit, the stream is left open.
+     *
+     * @param in
+     * @param maxLength
+     * @return the content read, shorter than maxLength only at the end of the stream
+     */
+    public static byte[] readAtMost(InputStream in, int maxLength) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        byte[] buffer = pool.acquire();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxLength, buffer.length));
+            int n;
+            while (out.size() < maxLength && (n = in.read(buffer, 0, Math.min(buffer.length, maxLength - out.size()))) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads the rest of the stream into pooled chunks and assembles them once the length is known.
+     */
+    private static byte[] readChunked(InputStream in, byte[] head, long maxLength) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        List<byte[]> chunks = new ArrayList<>();
+        long total = head.length;
+        int last = 0;
+        try {
+            byte[] chunk = null;
+            while (true) {
+                if (chunk == null || last == chunk.length) {
+                    chunk = pool.acquire();
+                    chunks.add(chunk);
+                    last = 0;
+                }
+                int n = in.read(chunk, last, chunk.length - last);
+                if (n < 0) {
+                    break;
+                }
+                last += n;
+                total += n;
+                if (total > maxLength) {
+                    return null;
+                }
+            }
+            if (total > MAX_ARRAY_LENGTH) {
+                throw new IOException("Content exceeds maximum array length");
+            }
+
+            byte[] content = new byte[(int) total];
+            System.arraycopy(head, 0, content, 0, head.length);
+            int position = head.length;
+            for (int i = 0; i < chunks.size(); i++) {
+                int length = i == chunks.size() - 1 ? last : chunks.get(i).length;
+                System.arraycopy(chunks.get(i), 0, content, position, length);
+                position += length;
+            }
+            return content;
+        } finally {
+            for (byte[] c : chunks) {
+                pool.release(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.profclub.storage.util;
+
+/**
+ * Fixed set of monitors shared by keys, so that per-key locking needs no per-key allocation.
+ */
+public class StripedLocks {
+
+    private final Object[] locks;
+
+    public StripedLocks(int stripes) {
+        this.locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Gets the monitor guarding a key.
+     *
+     * @param key
+     * @return
+     */
+    public Object get(Object key) {
+        return locks[stripe(key)];
+    }
+
+    /**
+     * Gets the monitor to take first when two keys are locked together,
+     * locks are always taken in stripe order.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public Object first(Object a, Object b) {
+        return locks[Math.min(stripe(a), stripe(b))];
+    }
+
+    /**
+     * Gets the monitor to take second when two keys are locked together.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public Object second(Object a, Object b) {
+        return locks[Math.max(stripe(a), stripe(b))];
+    }
+
+    private int stripe(Object key) {
+        return (key.hashCode() & 0x7fffffff) % locks.length;
+    }
+}
@@ -0,0 +1,171 @@
+package com.profclub.storage.aws;
+
+import com.amazonaws.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import org.junit.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class S3ConcurrencyLimiterTest {
+
+    private static final String KEY = "Upload/folder/item";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void throttlingHalvesTheLimitOncePerInterval() throws Exception {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(configuration(8, 16));
+
+        throttle(limiter, KEY, 503, null);
+        assertEquals(4, limiter.getLimit(KEY));
+
+        // responses to requests sent before the decrease do not decrease it again
+        throttle(limiter, KEY, 503, null);
+        assertEquals(4, limiter.getLimit(KEY));
+
+        Thread.sleep(150);
+        throttle(limiter, KEY, 400, "SlowDown");
+        assertEquals(2, limiter.getLimit(KEY));
+    }
+
+    @Test
+    public void limitDoesNotDropBelowTheMinimum() throws Exception {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(configuration(2, 16));
+        for (int i = 0; i < 3; i++) {
+            throttle(limiter, KEY, 429, null);
+            Thread.sleep(150);
+        }
+        assertEquals(1, limiter.getLimit(KEY));
+    }
+
+    @Test
+    public void otherFailuresLeaveTheLimit() throws Exception {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(configuration(8, 16));
+        throttle(limiter, KEY, 500, "InternalError");
+        assertEquals(8, limiter.getLimit(KEY));
+    }
+
+    @Test
+    public void successGrowsTheLimitOnlyWhenSaturated() throws Exception {
+        S3ConcurrencyLimiter idle = new S3ConcurrencyLimiter(configuration(8, 16));
+        for (int i = 0; i < 20; i++) {
+            idle.execute(KEY, () -> null);
+        }
+        assertEquals(8, idle.getLimit(KEY));
+
+        // with a request held, every request completes at half the limit or more and adds 1/limit: 2, 2.5, 2.9, 3.24
+        S3ConcurrencyLimiter saturated = new S3ConcurrencyLimiter(configuration(2, 16));
+        CountDownLatch release = hold(saturated);
+        saturated.execute(KEY, () -> null);
+        saturated.execute(KEY, () -> null);
+        assertEquals(2, saturated.getLimit(KEY));
+        saturated.execute(KEY, () -> null);
+        assertEquals(3, saturated.getLimit(KEY));
+        release.countDown();
+    }
+
+    @Test
+    public void prefixesHaveTheirOwnLimit() throws Exception {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(configuration(8, 16));
+        throttle(limiter, KEY, 503, null);
+
+        assertEquals(4, limiter.getLimit("Upload/other"));
+        assertEquals(8, limiter.getLimit("Avatar/folder/item"));
+    }
+
+    @Test
+    public void requestOverTheLimitWaitsUntilItsDeadline() throws Exception {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(configuration(1, 1));
+        CountDownLatch release = hold(limiter);
+
+        long start = System.nanoTime();
+        try {
+            limiter.execute(KEY, () -> null);
+            fail("request over the limit ran");
+        } catch (StorageThrottledException e) {
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+
+        release.countDown();
+        assertEquals("done", limiter.execute(KEY, () -> "done"));
+    }
+
+    @Test
+    public void requestOverAFullQueueIsRejectedAtOnce() throws Exception {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(configuration(1, 0));
+        CountDownLatch release = hold(limiter);
+
+        long start = System.nanoTime();
+        try {
+            limiter.execute(KEY, () -> null);
+            fail("request over a full queue ran");
+        } catch (StorageThrottledException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        release.countDown();
+    }
+
+    // region <HELPERS>
+
+    private static AWSConfiguration configuration(int initialLimit, int maxQueued) {
+        return new AWSConfiguration() {
+
+            @Override
+            public String getS3BaseBucket() {
+                return "bucket";
+            }
+
+            @Override
+            public int getInitialConcurrencyLimit() {
+                return initialLimit;
+            }
+
+            @Override
+            public int getMaxQueuedRequests() {
+                return maxQueued;
+            }
+
+            @Override
+            public long getQueueTimeoutMillis() {
+                return 50;
+            }
+        };
+    }
+
+    private static void throttle(S3ConcurrencyLimiter limiter, String key, int status, String errorCode) throws Exception {
+        AmazonServiceException failure = new AmazonServiceException("failed");
+        failure.setStatusCode(status);
+        failure.setErrorCode(errorCode);
+        try {
+            limiter.execute(key, () -> {
+                throw failure;
+            });
+            fail("request did not fail");
+        } catch (AmazonServiceException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    /**
+     * Occupies a slot of the key prefix until the returned latch is released.
+     */
+    private CountDownLatch hold(S3ConcurrencyLimiter limiter) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> limiter.execute(KEY, () -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    // endregion
+}
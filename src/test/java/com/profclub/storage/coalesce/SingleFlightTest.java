@@ -0,0 +1,149 @@
+package com.profclub.storage.coalesce;
+
+import com.profclub.storage.exception.*;
+import org.junit.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private static final int WAITERS = 4;
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        threads.add(thread);
+        return thread;
+    });
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "value";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Future<String>> waiters = new ArrayList<>();
+        for (int i = 0; i < WAITERS; i++) {
+            waiters.add(executor.submit(() -> singleFlight.execute("key", () -> {
+                calls.incrementAndGet();
+                return "other";
+            })));
+        }
+        awaitWaiting(WAITERS + 1);
+        release.countDown();
+
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        for (Future<String> waiter : waiters) {
+            assertEquals("value", waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void waitersShareTheFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StorageException failure = new StorageException("failed");
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> waiter = executor.submit(() -> singleFlight.execute("key", () -> "other"));
+        awaitWaiting(2);
+        release.countDown();
+
+        assertSame(failure, causeOf(leader));
+        assertSame(failure, causeOf(waiter));
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void completedCallIsNotReused() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("1", singleFlight.execute("key", () -> String.valueOf(calls.incrementAndGet())));
+        assertEquals("2", singleFlight.execute("key", () -> String.valueOf(calls.incrementAndGet())));
+    }
+
+    @Test
+    public void differentKeysDoNotWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> blocked = executor.submit(() -> singleFlight.execute("a", () -> {
+            await(release);
+            return "a";
+        }));
+        assertEquals("b", singleFlight.execute("b", () -> "b"));
+        release.countDown();
+        assertEquals("a", blocked.get(5, TimeUnit.SECONDS));
+    }
+
+    // region <HELPERS>
+
+    private static void await(CountDownLatch latch) throws StorageException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static Throwable causeOf(Future<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("call did not fail");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    /**
+     * Waits until the callers are parked in the single flight, the leader on its latch and the others on the call in flight.
+     */
+    private void awaitWaiting(int callers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            int waiting = 0;
+            for (Thread thread : threads) {
+                if (thread.getState() == Thread.State.WAITING && isInExecute(thread)) {
+                    waiting++;
+                }
+            }
+            if (waiting >= callers) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("callers did not join the call in flight");
+    }
+
+    private static boolean isInExecute(Thread thread) {
+        for (StackTraceElement element : thread.getStackTrace()) {
+            if (element.getClassName().equals(SingleFlight.class.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // endregion
+}
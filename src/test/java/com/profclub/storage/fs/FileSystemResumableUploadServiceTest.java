@@ -0,0 +1,153 @@
+package com.profclub.storage.fs;
+
+import com.profclub.storage.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.upload.*;
+import com.profclub.storage.util.*;
+import org.junit.*;
+import org.junit.rules.*;
+import java.io.*;
+import java.nio.charset.*;
+
+import static org.junit.Assert.*;
+
+public class FileSystemResumableUploadServiceTest {
+
+    private static final int CHUNK_SIZE = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystemStorageProvider provider;
+
+    private FileSystemResumableUploadService service;
+
+    @Before
+    public void setUp() throws Exception {
+        String basePath = folder.newFolder("storage").getPath();
+        provider = new FileSystemStorageProvider(() -> basePath);
+        provider.init();
+        service = newService();
+    }
+
+    @After
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    public void chunksAppendedInAnyOrderAreCommitted() throws Exception {
+        UploadSession session = service.begin(StorageType.Upload, "item", "folder", CHUNK_SIZE);
+        service.append(session.getSessionId(), 2, bytes("ij"));
+        service.append(session.getSessionId(), 0, bytes("abcd"));
+        service.append(session.getSessionId(), 1, bytes("efgh"));
+        service.commit(session.getSessionId());
+
+        assertEquals("abcdefghij", read("item"));
+        assertMissing(session);
+    }
+
+    @Test
+    public void commitRejectsMissingChunk() throws Exception {
+        UploadSession session = service.begin(StorageType.Upload, "item", "folder", CHUNK_SIZE);
+        service.append(session.getSessionId(), 0, bytes("abcd"));
+        service.append(session.getSessionId(), 2, bytes("ij"));
+
+        assertCommitFails(session, "missing chunk 1");
+        assertFalse(provider.exist(StorageType.Upload, "item", "folder"));
+
+        service.append(session.getSessionId(), 1, bytes("efgh"));
+        service.commit(session.getSessionId());
+        assertEquals("abcdefghij", read("item"));
+    }
+
+    @Test
+    public void commitRejectsShortChunkBeforeTheLast() throws Exception {
+        UploadSession session = service.begin(StorageType.Upload, "item", "folder", CHUNK_SIZE);
+        service.append(session.getSessionId(), 0, bytes("ab"));
+        service.append(session.getSessionId(), 1, bytes("efgh"));
+
+        assertCommitFails(session, "incomplete chunk 0");
+        assertFalse(provider.exist(StorageType.Upload, "item", "folder"));
+    }
+
+    @Test
+    public void commitDoesNotReplaceExistingItem() throws Exception {
+        UploadSession session = service.begin(StorageType.Upload, "item", "folder", CHUNK_SIZE);
+        service.append(session.getSessionId(), 0, bytes("abcd"));
+        provider.upload(StorageType.Upload, "item", "folder", bytes("existing"));
+
+        try {
+            service.commit(session.getSessionId());
+            fail("commit replaced an existing item");
+        } catch (StorageItemAlreadyExistsException e) {
+            assertEquals("existing", read("item"));
+        }
+    }
+
+    @Test
+    public void oversizedChunkIsRejected() throws Exception {
+        UploadSession session = service.begin(StorageType.Upload, "item", "folder", CHUNK_SIZE);
+        try {
+            service.append(session.getSessionId(), 0, bytes("abcde"));
+            fail("oversized chunk accepted");
+        } catch (StorageException e) {
+            assertFalse(service.getSession(session.getSessionId()).hasChunk(0));
+        }
+    }
+
+    @Test
+    public void sessionSurvivesRestart() throws Exception {
+        UploadSession session = service.begin(StorageType.Upload, "item", "folder", CHUNK_SIZE);
+        service.append(session.getSessionId(), 0, bytes("abcd"));
+        service.destroy();
+
+        service = newService();
+        UploadSession restored = service.getSession(session.getSessionId());
+        assertTrue(restored.hasChunk(0));
+        assertFalse(restored.hasChunk(1));
+
+        service.append(session.getSessionId(), 1, bytes("ef"));
+        service.commit(session.getSessionId());
+        assertEquals("abcdef", read("item"));
+    }
+
+    // region <HELPERS>
+
+    private FileSystemResumableUploadService newService() throws Exception {
+        String checkpointPath = new File(folder.getRoot(), "checkpoints").getPath();
+        FileSystemResumableUploadService uploadService = new FileSystemResumableUploadService(provider, () -> checkpointPath);
+        uploadService.init();
+        return uploadService;
+    }
+
+    private void assertCommitFails(UploadSession session, String reason) {
+        try {
+            service.commit(session.getSessionId());
+            fail("commit accepted");
+        } catch (StorageException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    private void assertMissing(UploadSession session) {
+        try {
+            service.getSession(session.getSessionId());
+            fail("session kept after commit");
+        } catch (StorageException e) {
+            // removed with its checkpoint
+        }
+    }
+
+    private String read(String id) throws Exception {
+        try (InputStream in = provider.read(StorageType.Upload, id, "folder")) {
+            return new String(StreamHelper.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // endregion
+}
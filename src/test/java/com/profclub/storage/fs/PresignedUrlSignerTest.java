@@ -0,0 +1,70 @@
+package com.profclub.storage.fs;
+
+import com.profclub.storage.*;
+import org.junit.*;
+import java.net.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PresignedUrlSignerTest {
+
+    private static final StorageKey KEY = new StorageKey(StorageType.Upload, "folder one", "report.pdf");
+
+    private final PresignedUrlSigner signer = new PresignedUrlSigner("http://localhost:8081/storage/", "secret");
+
+    @Test
+    public void signedUrlIsVerified() throws Exception {
+        long expires = System.currentTimeMillis() + 60_000;
+        URL url = signer.sign("GET", KEY, expires);
+
+        assertEquals("/storage/folder%20one/Upload/report.pdf", url.getPath());
+        Map<String, String> query = query(url);
+        assertEquals(String.valueOf(expires), query.get(PresignedUrlSigner.EXPIRES_PARAM));
+        assertTrue(signer.verify("GET", KEY, expires, query.get(PresignedUrlSigner.SIGNATURE_PARAM)));
+    }
+
+    @Test
+    public void expiredUrlIsRejected() throws Exception {
+        long expires = System.currentTimeMillis() - 1;
+        String signature = query(signer.sign("GET", KEY, expires)).get(PresignedUrlSigner.SIGNATURE_PARAM);
+
+        assertFalse(signer.verify("GET", KEY, expires, signature));
+    }
+
+    @Test
+    public void signatureCoversMethodItemAndExpiration() throws Exception {
+        long expires = System.currentTimeMillis() + 60_000;
+        String signature = query(signer.sign("GET", KEY, expires)).get(PresignedUrlSigner.SIGNATURE_PARAM);
+
+        assertFalse(signer.verify("PUT", KEY, expires, signature));
+        assertFalse(signer.verify("GET", new StorageKey(StorageType.Upload, "folder one", "other.pdf"), expires, signature));
+        assertFalse(signer.verify("GET", new StorageKey(StorageType.Avatar, "folder one", "report.pdf"), expires, signature));
+        assertFalse(signer.verify("GET", new StorageKey(StorageType.Upload, null, "report.pdf"), expires, signature));
+        assertFalse(signer.verify("GET", KEY, expires + 60_000, signature));
+    }
+
+    @Test
+    public void forgedSignatureIsRejected() throws Exception {
+        long expires = System.currentTimeMillis() + 60_000;
+        String signature = query(signer.sign("GET", KEY, expires)).get(PresignedUrlSigner.SIGNATURE_PARAM);
+        PresignedUrlSigner otherSecret = new PresignedUrlSigner("http://localhost:8081/storage", "other");
+
+        assertFalse(otherSecret.verify("GET", KEY, expires, signature));
+        assertFalse(signer.verify("GET", KEY, expires, signature.substring(1) + "0"));
+        assertFalse(signer.verify("GET", KEY, expires, null));
+    }
+
+    // region <HELPERS>
+
+    private static Map<String, String> query(URL url) throws Exception {
+        Map<String, String> query = new HashMap<>();
+        for (String pair : url.getQuery().split("&")) {
+            int separator = pair.indexOf('=');
+            query.put(pair.substring(0, separator), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+        }
+        return query;
+    }
+
+    // endregion
+}
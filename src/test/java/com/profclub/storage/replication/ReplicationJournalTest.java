@@ -0,0 +1,126 @@
+package com.profclub.storage.replication;
+
+import com.profclub.storage.*;
+import org.junit.*;
+import org.junit.rules.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReplicationJournalTest {
+
+    private static final StorageKey FIRST = new StorageKey(StorageType.Upload, "folder", "first");
+
+    private static final StorageKey SECOND = new StorageKey(StorageType.Avatar, null, "second id/with\tseparators");
+
+    private static final StorageKey THIRD = new StorageKey(StorageType.CoverImage, "folder", "third");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Before
+    public void setUp() {
+        path = folder.getRoot().toPath().resolve("journal").resolve("replication.journal");
+    }
+
+    @Test
+    public void replayReturnsEntriesNotCompleted() throws Exception {
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            assertTrue(journal.open().isEmpty());
+            JournalEntry first = journal.append(JournalEntry.Operation.PUT, FIRST);
+            journal.append(JournalEntry.Operation.DELETE, SECOND);
+            journal.append(JournalEntry.Operation.PUT, THIRD);
+            journal.complete(Collections.singletonList(first.getSeq()));
+        }
+
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            List<JournalEntry> pending = journal.open();
+            assertEquals(2, pending.size());
+            assertEntry(pending.get(0), 2, JournalEntry.Operation.DELETE, SECOND);
+            assertEntry(pending.get(1), 3, JournalEntry.Operation.PUT, THIRD);
+            assertEquals(4, journal.append(JournalEntry.Operation.PUT, FIRST).getSeq());
+        }
+    }
+
+    @Test
+    public void tornLastLineIsTruncated() throws Exception {
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            journal.open();
+            journal.append(JournalEntry.Operation.PUT, FIRST);
+        }
+        Files.write(path, "PUT\t2\t12".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            assertEquals(1, journal.open().size());
+            journal.append(JournalEntry.Operation.PUT, SECOND);
+        }
+
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            List<JournalEntry> pending = journal.open();
+            assertEquals(2, pending.size());
+            assertEntry(pending.get(1), 2, JournalEntry.Operation.PUT, SECOND);
+        }
+    }
+
+    @Test
+    public void compactionKeepsOnlyPendingEntries() throws Exception {
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            journal.open();
+            List<Long> completed = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                completed.add(journal.append(JournalEntry.Operation.PUT, FIRST).getSeq());
+            }
+            JournalEntry pending = journal.append(JournalEntry.Operation.PUT, SECOND);
+            journal.complete(completed);
+
+            long size = Files.size(path);
+            assertFalse(journal.compact(Collections.singletonList(pending), size));
+            assertTrue(journal.compact(Collections.singletonList(pending), 0));
+            assertTrue(Files.size(path) < size);
+
+            // appends after the compaction go to the rewritten journal
+            journal.append(JournalEntry.Operation.DELETE, THIRD);
+        }
+
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            List<JournalEntry> pending = journal.open();
+            assertEquals(2, pending.size());
+            assertEntry(pending.get(0), 11, JournalEntry.Operation.PUT, SECOND);
+            assertEntry(pending.get(1), 12, JournalEntry.Operation.DELETE, THIRD);
+        }
+    }
+
+    @Test
+    public void compactionWaitsForTwiceTheCompactedSize() throws Exception {
+        try (ReplicationJournal journal = new ReplicationJournal(path)) {
+            journal.open();
+            List<JournalEntry> pending = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                pending.add(journal.append(JournalEntry.Operation.PUT, FIRST));
+            }
+            assertTrue(journal.compact(pending, 0));
+            long compactedSize = Files.size(path);
+
+            // a backlog over the limit is not rewritten again until the journal doubles
+            while (Files.size(path) <= 2 * compactedSize) {
+                assertFalse(journal.compact(pending, 0));
+                journal.complete(Collections.singletonList(pending.get(0).getSeq()));
+            }
+            assertTrue(journal.compact(pending, 0));
+        }
+    }
+
+    // region <HELPERS>
+
+    private static void assertEntry(JournalEntry entry, long seq, JournalEntry.Operation operation, StorageKey key) {
+        assertEquals(seq, entry.getSeq());
+        assertEquals(operation, entry.getOperation());
+        assertEquals(key, entry.getKey());
+    }
+
+    // endregion
+}
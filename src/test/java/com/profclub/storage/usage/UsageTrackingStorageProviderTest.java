@@ -0,0 +1,175 @@
+package com.profclub.storage.usage;
+
+import com.profclub.storage.*;
+import com.profclub.storage.config.*;
+import com.profclub.storage.exception.*;
+import com.profclub.storage.fs.*;
+import org.junit.*;
+import org.junit.rules.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class UsageTrackingStorageProviderTest {
+
+    private static final String FOLDER = "folder";
+
+    private static final long QUOTA = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystemStorageProvider delegate;
+
+    private Path snapshotPath;
+
+    private UsageSnapshotStore snapshotStore;
+
+    private UsageTrackingStorageProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        String basePath = folder.newFolder("storage").getPath();
+        delegate = new FileSystemStorageProvider(() -> basePath);
+        delegate.init();
+        snapshotPath = folder.getRoot().toPath().resolve("usage").resolve("usage.properties");
+        snapshotStore = new UsageSnapshotStore(snapshotPath);
+    }
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.destroy();
+        }
+    }
+
+    @Test
+    public void writesUpdateTheCounters() throws Exception {
+        start(Collections.emptyMap(), true);
+
+        provider.upload(StorageType.Upload, "a", FOLDER, bytes("abc"));
+        try (OutputStream out = provider.create(StorageType.Upload, "b", FOLDER)) {
+            out.write(bytes("defg"));
+        }
+        assertUsage(7, 2, StorageType.Upload);
+
+        provider.copy(StorageType.Upload, "a", StorageType.Upload, "c", FOLDER);
+        provider.move(StorageType.Upload, "b", StorageType.Avatar, "b", FOLDER);
+        provider.delete(StorageType.Upload, "a", FOLDER);
+        assertUsage(3, 1, StorageType.Upload);
+        assertUsage(4, 1, StorageType.Avatar);
+    }
+
+    @Test
+    public void reconcileCorrectsWritesBypassingTheProvider() throws Exception {
+        start(Collections.emptyMap(), true);
+        provider.upload(StorageType.Upload, "a", FOLDER, bytes("abc"));
+        delegate.upload(StorageType.Upload, "b", FOLDER, bytes("defg"));
+        delegate.delete(StorageType.Upload, "a", FOLDER);
+        assertUsage(3, 1, StorageType.Upload);
+
+        provider.reconcile();
+        assertUsage(4, 1, StorageType.Upload);
+    }
+
+    @Test
+    public void cleanSnapshotIsTrustedAtStartup() throws Exception {
+        delegate.upload(StorageType.Upload, "a", FOLDER, bytes("abc"));
+        start(Collections.singletonMap(new UsageKey(FOLDER, StorageType.Upload), new StorageUsage(100, 5)), true);
+
+        assertUsage(100, 5, StorageType.Upload);
+        assertFalse(snapshotStore.load().isClean());
+    }
+
+    @Test
+    public void uncleanSnapshotIsReconciledAtStartup() throws Exception {
+        delegate.upload(StorageType.Upload, "a", FOLDER, bytes("abc"));
+        start(Collections.singletonMap(new UsageKey(FOLDER, StorageType.Upload), new StorageUsage(100, 5)), false);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (provider.getUsage(FOLDER, StorageType.Upload).getBytes() != 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertUsage(3, 1, StorageType.Upload);
+    }
+
+    @Test
+    public void shutdownSavesACleanSnapshot() throws Exception {
+        start(Collections.emptyMap(), true);
+        provider.upload(StorageType.Upload, "a", FOLDER, bytes("abc"));
+        provider.destroy();
+        provider = null;
+
+        UsageSnapshotStore.Snapshot snapshot = snapshotStore.load();
+        assertTrue(snapshot.isClean());
+        StorageUsage usage = snapshot.getUsage().get(new UsageKey(FOLDER, StorageType.Upload));
+        assertEquals(3, usage.getBytes());
+        assertEquals(1, usage.getObjects());
+    }
+
+    @Test
+    public void uploadOverTheQuotaIsRejected() throws Exception {
+        start(Collections.emptyMap(), true);
+        provider.upload(StorageType.Upload, "a", FOLDER, bytes("abcdef"));
+        try {
+            provider.upload(StorageType.Upload, "b", FOLDER, bytes("ghijk"));
+            fail("upload over the quota stored");
+        } catch (StorageQuotaExceededException e) {
+            assertFalse(delegate.exist(StorageType.Upload, "b", FOLDER));
+        }
+        assertUsage(6, 1, StorageType.Upload);
+    }
+
+    @Test
+    public void streamOverTheQuotaFailsAndLeavesNoItem() throws Exception {
+        start(Collections.emptyMap(), true);
+        OutputStream out = provider.create(StorageType.Upload, "a", FOLDER);
+        out.write(bytes("abcdef"));
+        try {
+            out.write(bytes("ghijk"));
+            fail("write over the quota accepted");
+        } catch (StorageQuotaExceededException e) {
+            // the write is refused before reaching the delegate
+        } finally {
+            out.close();
+        }
+
+        assertFalse(delegate.exist(StorageType.Upload, "a", FOLDER));
+        assertUsage(0, 0, StorageType.Upload);
+    }
+
+    // region <HELPERS>
+
+    private void start(Map<UsageKey, StorageUsage> snapshot, boolean clean) throws Exception {
+        snapshotStore.save(snapshot, clean);
+        String path = snapshotPath.toString();
+        provider = new UsageTrackingStorageProvider(delegate, new UsageConfiguration() {
+
+            @Override
+            public String getSnapshotPath() {
+                return path;
+            }
+
+            @Override
+            public long getQuotaBytes(String folderID, StorageType type) {
+                return QUOTA;
+            }
+        });
+        provider.init();
+    }
+
+    private void assertUsage(long bytes, long objects, StorageType type) {
+        StorageUsage usage = provider.getUsage(FOLDER, type);
+        assertEquals(bytes, usage.getBytes());
+        assertEquals(objects, usage.getObjects());
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // endregion
+}